@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.nio.channels.Channels
+import kotlin.math.cos
+import kotlin.math.sin
+
+@RunWith(AndroidJUnit4::class)
+class InkFormatBenchmark {
+
+    @Test
+    fun benchmarkAgainstJson() {
+        val brushes = createBrushes(1000, 200)
+
+        var binary = ByteArray(0)
+        var json = ""
+        // warm up both encoders before timing them
+        repeat(3) {
+            binary = encode(brushes)
+            json = toJson(brushes)
+        }
+
+        val binaryStart = System.nanoTime()
+        binary = encode(brushes)
+        val binaryWriteNanos = System.nanoTime() - binaryStart
+        val readStart = System.nanoTime()
+        val loaded = InkFormat.read(Channels.newChannel(ByteArrayInputStream(binary)))
+        val binaryReadNanos = System.nanoTime() - readStart
+
+        val jsonStart = System.nanoTime()
+        json = toJson(brushes)
+        val jsonWriteNanos = System.nanoTime() - jsonStart
+        val jsonBytes = json.toByteArray().size
+
+        assertEquals(brushes.size, loaded.size)
+        Log.i(
+            TAG,
+            "${brushes.size} strokes of 200 samples: binary ${binary.size / 1024} KB " +
+                "(write ${binaryWriteNanos / 1_000_000} ms, read ${binaryReadNanos / 1_000_000} ms), " +
+                "json ${jsonBytes / 1024} KB (write ${jsonWriteNanos / 1_000_000} ms)"
+        )
+    }
+
+    private fun encode(brushes: List<InkView.Brush>): ByteArray {
+        val output = ByteArrayOutputStream()
+        InkFormat.write(brushes, Channels.newChannel(output))
+        return output.toByteArray()
+    }
+
+    private fun toJson(brushes: List<InkView.Brush>): String {
+        val json = StringBuilder("[")
+        for (brush in brushes) {
+            val stroke = brush.stroke
+            json.append("{\"color\":").append(brush.color)
+                .append(",\"strokeWidth\":").append(brush.strokeWidth)
+                .append(",\"strokeWidthMax\":").append(brush.strokeWidthMax)
+                .append(",\"points\":[")
+            for (i in 0 until stroke.size) {
+                json.append("{\"x\":").append(stroke.getX(i))
+                    .append(",\"y\":").append(stroke.getY(i))
+                    .append(",\"pressure\":").append(stroke.getPressure(i))
+                    .append(",\"tilt\":").append(stroke.getTilt(i))
+                    .append(",\"orientation\":").append(stroke.getOrientation(i))
+                    .append(",\"timestamp\":").append(stroke.getTimestamp(i))
+                    .append(",\"pointerType\":\"").append(stroke.getPointerType(i)).append("\"}")
+                    .append(if (i < stroke.size - 1) "," else "")
+            }
+            json.append("]},")
+        }
+        json.setLength(json.length - 1)
+        return json.append("]").toString()
+    }
+
+    private fun createBrushes(count: Int, samples: Int): List<InkView.Brush> {
+        return List(count) { s ->
+            val stroke = InputManager.ExtendedStroke()
+            for (i in 0 until samples) {
+                val t = i / 10f
+                stroke.addSample(
+                    InputManager.PointerType.PEN_TIP,
+                    100f + s * 3f + t * 40f + 20f * cos(t),
+                    200f + s * 5f + 30f * sin(t),
+                    0.5f + 0.4f * sin(t * 0.7f),
+                    if (s % 2 == 0) 0f else 1.2f,
+                    if (s % 2 == 0) 0f else 0.3f + 0.1f * sin(t),
+                    1_000_000L + s * 10_000L + i * 4L,
+                    i % 50 < 25,
+                    false
+                )
+            }
+            InkView.Brush(0xff000000.toInt() or s * 1000, 1f + s % 3, 10f, null, stroke)
+        }
+    }
+
+    companion object {
+        private const val TAG = "InkFormatBenchmark"
+    }
+}
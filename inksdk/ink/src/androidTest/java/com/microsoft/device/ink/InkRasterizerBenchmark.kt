@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Color
+import android.graphics.Rect
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.ForkJoinPool
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+class InkRasterizerBenchmark {
+
+    @Test
+    fun parallelMatchesSerial() {
+        val brushes = randomPage(Random(3), 300)
+        val region = Rect(0, 0, PAGE_SIZE, PAGE_SIZE)
+        val options = ExportOptions(region, scale = 0.5f)
+
+        val serial = InkRasterizer(DENSITY, ForkJoinPool(1)).rasterize(brushes, options, pressureEnabled = true)
+        val parallel = InkRasterizer(DENSITY).rasterize(brushes, options, pressureEnabled = true)
+
+        assertTrue(serial.sameAs(parallel))
+    }
+
+    @Test
+    fun benchmarkPageThroughput() {
+        val brushes = randomPage(Random(7), 2_000)
+        val region = Rect(0, 0, PAGE_SIZE, PAGE_SIZE)
+        val threads = Runtime.getRuntime().availableProcessors()
+
+        for (pressure in listOf(false, true)) {
+            val serialNanos = timePages(InkRasterizer(DENSITY, ForkJoinPool(1)), brushes, region, pressure)
+            val parallelNanos = timePages(InkRasterizer(DENSITY, ForkJoinPool(threads)), brushes, region, pressure)
+
+            val pixels = PAGE_SIZE.toLong() * PAGE_SIZE * PAGES
+            Log.i(
+                TAG,
+                "pressure=$pressure: 1 thread ${pagesPerSecond(serialNanos)} pages/s " +
+                    "(${megapixelsPerSecond(pixels, serialNanos)} MP/s), $threads threads " +
+                    "${pagesPerSecond(parallelNanos)} pages/s (${megapixelsPerSecond(pixels, parallelNanos)} MP/s), " +
+                    "${brushes.size} strokes per page"
+            )
+        }
+    }
+
+    private fun timePages(rasterizer: InkRasterizer, brushes: List<InkView.Brush>, region: Rect, pressure: Boolean): Long {
+        val options = ExportOptions(region)
+        // warm up the renderers and the pool before timing
+        rasterizer.rasterize(brushes, options, pressure).recycle()
+        val start = System.nanoTime()
+        repeat(PAGES) {
+            rasterizer.rasterize(brushes, options, pressure).recycle()
+        }
+        return System.nanoTime() - start
+    }
+
+    private fun pagesPerSecond(nanos: Long) = "%.1f".format(PAGES * 1e9 / nanos)
+
+    private fun megapixelsPerSecond(pixels: Long, nanos: Long) = "%.1f".format(pixels * 1e3 / nanos)
+
+    private fun randomPage(random: Random, strokes: Int): List<InkView.Brush> {
+        return List(strokes) {
+            val stroke = InputManager.ExtendedStroke()
+            var x = random.nextFloat() * PAGE_SIZE
+            var y = random.nextFloat() * PAGE_SIZE
+            repeat(40) { i ->
+                x += random.nextFloat() * 20f - 10f
+                y += random.nextFloat() * 20f - 10f
+                stroke.addSample(
+                    InputManager.PointerType.PEN_TIP,
+                    x,
+                    y,
+                    random.nextFloat(),
+                    0f,
+                    0f,
+                    i * 8L,
+                    primaryButtonState = false,
+                    secondaryButtonState = false
+                )
+            }
+            InkView.Brush(Color.rgb(random.nextInt(256), 0, 0), 2f, 8f, null, stroke)
+        }
+    }
+
+    companion object {
+        private const val TAG = "InkRasterizerBenchmark"
+        private const val PAGE_SIZE = 2_000
+        private const val PAGES = 10
+        private const val DENSITY = 2.5f
+    }
+}
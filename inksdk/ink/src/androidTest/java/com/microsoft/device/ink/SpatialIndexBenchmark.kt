@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+class SpatialIndexBenchmark {
+
+    private class Box(val left: Float, val top: Float, val right: Float, val bottom: Float) {
+        fun intersects(l: Float, t: Float, r: Float, b: Float) = left <= r && right >= l && top <= b && bottom >= t
+    }
+
+    @Test
+    fun benchmarkQueryAgainstScan() {
+        val random = Random(7)
+        // mostly short strokes with a few long ones, on a 4000 x 4000 page
+        val boxes = List(20_000) {
+            val x = random.nextFloat() * 4000f
+            val y = random.nextFloat() * 4000f
+            val extent = if (random.nextInt(20) == 0) 1500f else 120f
+            Box(x, y, x + random.nextFloat() * extent, y + random.nextFloat() * extent)
+        }
+        val index = SpatialIndex<Box>()
+
+        val buildStart = System.nanoTime()
+        boxes.forEach { index.insert(it, it.left, it.top, it.right, it.bottom) }
+        val buildNanos = System.nanoTime() - buildStart
+
+        val queries = Array(2_000) {
+            val x = random.nextFloat() * 4000f
+            val y = random.nextFloat() * 4000f
+            floatArrayOf(x - 30f, y - 30f, x + 30f, y + 30f)
+        }
+        val result = ArrayList<Box>()
+        var indexed = 0
+        var scanned = 0
+        // warm up both paths before timing them
+        repeat(2) {
+            queries.forEach { q -> result.clear(); indexed += index.query(q[0], q[1], q[2], q[3], result) }
+            queries.forEach { q -> scanned += boxes.count { it.intersects(q[0], q[1], q[2], q[3]) } }
+        }
+
+        val indexStart = System.nanoTime()
+        queries.forEach { q -> result.clear(); indexed += index.query(q[0], q[1], q[2], q[3], result) }
+        val indexNanos = System.nanoTime() - indexStart
+
+        val scanStart = System.nanoTime()
+        queries.forEach { q -> scanned += boxes.count { it.intersects(q[0], q[1], q[2], q[3]) } }
+        val scanNanos = System.nanoTime() - scanStart
+
+        assertEquals(scanned, indexed)
+        Log.i(
+            TAG,
+            "${boxes.size} strokes: build ${buildNanos / 1_000_000} ms, " +
+                "query ${indexNanos / queries.size / 1000} us, scan ${scanNanos / queries.size / 1000} us"
+        )
+    }
+
+    companion object {
+        private const val TAG = "SpatialIndexBenchmark"
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.PorterDuff
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.math.cos
+import kotlin.math.sin
+
+@RunWith(AndroidJUnit4::class)
+class StrokeSimplifierBenchmark {
+
+    @Test
+    fun benchmarkReplay() {
+        val raw = List(500) { handwriting(it) }
+        val simplifier = StrokeSimplifier()
+        val start = System.nanoTime()
+        val simplified = raw.map { it.copy(stroke = simplifier.simplify(it.stroke)) }
+        val simplifyNanos = System.nanoTime() - start
+
+        val bitmap = Bitmap.createBitmap(PAGE_WIDTH, PAGE_HEIGHT, Bitmap.Config.ARGB_8888)
+        val canvas = Canvas(bitmap)
+        val renderer = StrokeRenderer(DENSITY)
+        for (pressure in listOf(false, true)) {
+            val rawNanos = timeReplay(renderer, canvas, raw, pressure)
+            val simplifiedNanos = timeReplay(renderer, canvas, simplified, pressure)
+            Log.i(
+                TAG,
+                "pressure=$pressure, ${raw.size} strokes: ${raw.sumOf { it.stroke.size }} -> " +
+                    "${simplified.sumOf { it.stroke.size }} samples (simplified in ${simplifyNanos / 1_000_000} ms), " +
+                    "replay ${rawNanos / REPLAYS / 1000} us -> ${simplifiedNanos / REPLAYS / 1000} us, " +
+                    "%.1fx".format(rawNanos.toDouble() / simplifiedNanos)
+            )
+        }
+        bitmap.recycle()
+    }
+
+    private fun timeReplay(renderer: StrokeRenderer, canvas: Canvas, brushes: List<InkView.Brush>, pressure: Boolean): Long {
+        // warm up the renderer before timing
+        replay(renderer, canvas, brushes, pressure)
+        val start = System.nanoTime()
+        repeat(REPLAYS) {
+            replay(renderer, canvas, brushes, pressure)
+        }
+        return System.nanoTime() - start
+    }
+
+    private fun replay(renderer: StrokeRenderer, canvas: Canvas, brushes: List<InkView.Brush>, pressure: Boolean) {
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
+        for (brush in brushes) {
+            renderer.renderComplete(canvas, canvas, brush, pressure)
+        }
+    }
+
+    /**
+     * A cursive like loop stroke sampled at 240 Hz with pressure varying along the stroke.
+     */
+    private fun handwriting(seed: Int): InkView.Brush {
+        val stroke = InputManager.ExtendedStroke()
+        val originY = (seed % 20) * 100f + 60f
+        for (t in 0 until 400) {
+            val phase = t / 25f + seed
+            stroke.addSample(
+                InputManager.PointerType.PEN_TIP,
+                t * 1.5f + 30f * cos(phase) + 40f,
+                originY + 40f * sin(phase) + 10f * sin(phase * 0.3f),
+                0.6f + 0.3f * sin(t / 60f),
+                0f,
+                0f,
+                t * 4L,
+                primaryButtonState = false,
+                secondaryButtonState = false
+            )
+        }
+        return InkView.Brush(Color.BLACK, 2f, 8f, null, stroke)
+    }
+
+    companion object {
+        private const val TAG = "StrokeSimplifierBenchmark"
+        private const val PAGE_WIDTH = 700
+        private const val PAGE_HEIGHT = 2_100
+        private const val REPLAYS = 10
+        private const val DENSITY = 2.5f
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Bitmap
+import android.graphics.Color
+
+/**
+ * Pool of mutable bitmaps reused by size and config, so repeated exports of the same size
+ * don't allocate. Released bitmaps are kept up to [maxBytes], the least recently released ones
+ * are recycled first. Thread safe.
+ *
+ * @param maxBytes memory the idle bitmaps may hold, in bytes
+ */
+internal class BitmapPool(private val maxBytes: Long = DEFAULT_MAX_BYTES) {
+    // least recently released first
+    private val idle = ArrayList<Bitmap>()
+    private var idleBytes = 0L
+
+    /**
+     * Memory held by the idle bitmaps, in bytes
+     */
+    val bytes: Long
+        @Synchronized get() = idleBytes
+
+    /**
+     * @return a transparent bitmap of the given size and config, taken from the pool when one
+     * matches
+     */
+    fun obtain(width: Int, height: Int, config: Bitmap.Config): Bitmap {
+        val pooled = take(width, height, config) ?: return Bitmap.createBitmap(width, height, config)
+        pooled.eraseColor(Color.TRANSPARENT)
+        return pooled
+    }
+
+    /**
+     * Gives [bitmap] back to the pool, it must not be used by the caller anymore.
+     */
+    @Synchronized
+    fun release(bitmap: Bitmap) {
+        if (bitmap.isRecycled || !bitmap.isMutable || idle.any { it === bitmap }) {
+            return
+        }
+        idle.add(bitmap)
+        idleBytes += bitmap.allocationByteCount
+        while (idleBytes > maxBytes && idle.isNotEmpty()) {
+            val evicted = idle.removeAt(0)
+            idleBytes -= evicted.allocationByteCount
+            evicted.recycle()
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        idle.forEach { it.recycle() }
+        idle.clear()
+        idleBytes = 0
+    }
+
+    @Synchronized
+    private fun take(width: Int, height: Int, config: Bitmap.Config): Bitmap? {
+        for (i in idle.indices.reversed()) {
+            val bitmap = idle[i]
+            if (bitmap.width == width && bitmap.height == height && bitmap.config == config) {
+                idle.removeAt(i)
+                idleBytes -= bitmap.allocationByteCount
+                return bitmap
+            }
+        }
+        return null
+    }
+
+    companion object {
+        const val DEFAULT_MAX_BYTES = 16L * 1024 * 1024
+    }
+}
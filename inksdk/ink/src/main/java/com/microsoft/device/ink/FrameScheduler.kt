@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.view.Choreographer
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Coalesces frame requests into at most one [onFrame] call per [Choreographer] frame.
+ *
+ * Requests only mark the work as pending, so input can be taken in as fast as it arrives while
+ * the rasterization and presentation of everything taken in since the previous frame happen
+ * once, aligned with the display. [request] may be called from any thread, [onFrame] runs on the
+ * thread owning [choreographer].
+ *
+ * @param onFrame performs the pending work, called with the number of requests coalesced into
+ * the frame
+ */
+internal class FrameScheduler(
+    private val choreographer: Choreographer,
+    private val onFrame: (requests: Int) -> Unit
+) : Choreographer.FrameCallback {
+
+    private val scheduled = AtomicBoolean()
+    private val requests = AtomicInteger()
+
+    /**
+     * True if a frame is scheduled and its work not performed yet
+     */
+    val isPending: Boolean
+        get() = scheduled.get()
+
+    fun request() {
+        requests.incrementAndGet()
+        if (scheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this)
+        }
+    }
+
+    /**
+     * Drops the scheduled frame, if any.
+     */
+    fun cancel() {
+        choreographer.removeFrameCallback(this)
+        scheduled.set(false)
+        requests.set(0)
+    }
+
+    override fun doFrame(frameTimeNanos: Long) {
+        // requests made while the work runs schedule the next frame
+        scheduled.set(false)
+        val count = requests.getAndSet(0)
+        if (count > 0) {
+            onFrame(count)
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Canvas
+import android.graphics.ColorFilter
+import android.graphics.Paint
+import android.graphics.PixelFormat
+import android.graphics.drawable.Drawable
+
+/**
+ * Hover and eraser cursor of an [InkView], drawn in the overlay of its parent so moving it
+ * only recomposites the view instead of touching the ink surface.
+ *
+ * The position is given in the coordinates of the view, [offsetX] and [offsetY] place the view
+ * in its parent.
+ */
+internal class HoverCursorDrawable : Drawable() {
+    private var x = 0f
+    private var y = 0f
+    private var radius = 0f
+    private var paint: Paint? = null
+
+    var offsetX = 0f
+    var offsetY = 0f
+
+    /**
+     * Moves the cursor, [paint] is kept and read when the cursor is drawn. Call
+     * [invalidateSelf] to show the change.
+     */
+    fun moveTo(x: Float, y: Float, radius: Float, paint: Paint) {
+        this.x = x
+        this.y = y
+        this.radius = radius
+        this.paint = paint
+    }
+
+    fun hide() {
+        paint = null
+    }
+
+    override fun draw(canvas: Canvas) {
+        val paint = paint ?: return
+        canvas.drawCircle(x + offsetX, y + offsetY, radius, paint)
+    }
+
+    override fun setAlpha(alpha: Int) {}
+
+    override fun setColorFilter(colorFilter: ColorFilter?) {}
+
+    @Suppress("OVERRIDE_DEPRECATION")
+    override fun getOpacity(): Int = PixelFormat.TRANSLUCENT
+}
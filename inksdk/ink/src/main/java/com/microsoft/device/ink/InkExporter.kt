@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.PorterDuff
+import android.graphics.Rect
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import kotlin.math.ceil
+import kotlin.math.max
+
+/**
+ * What [InkView.exportBitmap] and [InkView.exportImage] render.
+ *
+ * @param region area to render in view coordinates, the whole view when null
+ * @param scale output pixels per view pixel
+ * @param config config of the bitmap, [Bitmap.Config.ALPHA_8] only keeps the coverage of the
+ * ink, which is enough for single colour ink at a quarter of the memory
+ * @param backgroundColor color drawn behind the ink
+ */
+data class ExportOptions(
+    val region: Rect? = null,
+    val scale: Float = 1f,
+    val config: Bitmap.Config = Bitmap.Config.ARGB_8888,
+    val backgroundColor: Int = Color.TRANSPARENT
+) {
+    init {
+        require(scale > 0f) { "Invalid scale $scale" }
+    }
+}
+
+// shared by all views, exports are rendered one at a time
+private val defaultExportExecutor: Executor by lazy {
+    Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "InkView-export").apply { isDaemon = true }
+    }
+}
+
+/**
+ * Renders committed ink into pooled bitmaps off the UI thread, for thumbnails and sharing.
+ *
+ * The strokes are drawn again from their samples rather than copied from the backing store, so
+ * the result is sharp at any scale and doesn't wait for the render lock. Renders are serialized,
+ * the exporter can be called from any thread.
+ *
+ * @param density display density used to convert stroke widths from dp to pixels
+ */
+internal class InkExporter(density: Float) {
+
+    private val renderer = StrokeRenderer(density)
+
+    val pool = BitmapPool()
+
+    /**
+     * Renders [brushes] on [executor], or a shared background thread when null, then passes the
+     * bitmap to [callback] through [post]. The bitmap is null if [region] is empty or the
+     * bitmap could not be rendered.
+     */
+    fun exportBitmap(
+        brushes: List<InkView.Brush>,
+        region: Rect,
+        options: ExportOptions,
+        pressureEnabled: Boolean,
+        executor: Executor?,
+        post: (Runnable) -> Unit,
+        callback: (Bitmap?) -> Unit
+    ) {
+        if (region.isEmpty) {
+            post(Runnable { callback(null) })
+            return
+        }
+        (executor ?: defaultExportExecutor).execute {
+            val bitmap = trace("InkView.exportBitmap") { render(brushes, region, options, pressureEnabled) }
+            post(Runnable { callback(bitmap) })
+        }
+    }
+
+    /**
+     * Renders [brushes] like [exportBitmap] and encodes them into [out], leaving the stream
+     * open. [callback] then receives false through [post] if the image could not be rendered,
+     * encoded or written.
+     */
+    fun exportImage(
+        brushes: List<InkView.Brush>,
+        region: Rect,
+        options: ExportOptions,
+        pressureEnabled: Boolean,
+        out: OutputStream,
+        format: Bitmap.CompressFormat,
+        quality: Int,
+        executor: Executor?,
+        post: (Runnable) -> Unit,
+        callback: ((Boolean) -> Unit)?
+    ) {
+        if (region.isEmpty) {
+            callback?.let { post(Runnable { it(false) }) }
+            return
+        }
+        (executor ?: defaultExportExecutor).execute {
+            val encoded = trace("InkView.exportImage") {
+                val bitmap = render(brushes, region, options, pressureEnabled)
+                if (bitmap == null) {
+                    false
+                } else {
+                    try {
+                        encode(bitmap, format, quality, out)
+                    } finally {
+                        pool.release(bitmap)
+                    }
+                }
+            }
+            callback?.let { post(Runnable { it(encoded) }) }
+        }
+    }
+
+    /**
+     * Draws [brushes] clipped to [region] into a bitmap taken from [pool]. The brushes must not
+     * be used by another thread, their render state is reset.
+     *
+     * @return the bitmap, or null if [region] is empty or the bitmap could not be allocated or
+     * drawn
+     */
+    fun render(brushes: List<InkView.Brush>, region: Rect, options: ExportOptions, pressureEnabled: Boolean): Bitmap? {
+        if (region.isEmpty) {
+            return null
+        }
+        val width = max(1, ceil(region.width() * options.scale).toInt())
+        val height = max(1, ceil(region.height() * options.scale).toInt())
+        val bitmap = try {
+            pool.obtain(width, height, options.config)
+        } catch (e: OutOfMemoryError) {
+            return null
+        }
+        try {
+            val canvas = Canvas(bitmap)
+            canvas.scale(options.scale, options.scale)
+            canvas.translate(-region.left.toFloat(), -region.top.toFloat())
+            synchronized(renderer) {
+                for (brush in brushes) {
+                    brush.stroke.lastPointReferenced = 0
+                    renderer.render(canvas, canvas, brush, pressureEnabled, final = true)
+                }
+            }
+            if (options.backgroundColor != Color.TRANSPARENT) {
+                // behind the ink, so the pixel eraser doesn't cut through the background
+                canvas.drawColor(options.backgroundColor, PorterDuff.Mode.DST_OVER)
+            }
+        } catch (e: RuntimeException) {
+            pool.release(bitmap)
+            return null
+        } catch (e: OutOfMemoryError) {
+            pool.release(bitmap)
+            return null
+        }
+        return bitmap
+    }
+
+    /**
+     * Compresses [bitmap] into [out], leaving the stream open.
+     *
+     * @return false if the bitmap could not be encoded or written
+     */
+    fun encode(bitmap: Bitmap, format: Bitmap.CompressFormat, quality: Int, out: OutputStream): Boolean {
+        return try {
+            bitmap.compress(format, quality, out)
+        } catch (e: IOException) {
+            false
+        } catch (e: IllegalArgumentException) {
+            // quality out of range
+            false
+        }
+    }
+}
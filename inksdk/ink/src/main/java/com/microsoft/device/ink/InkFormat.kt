@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import java.io.Closeable
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.ReadableByteChannel
+import java.nio.channels.WritableByteChannel
+import kotlin.math.roundToInt
+
+/**
+ * Compact binary serialization of [InkView.Brush] lists.
+ *
+ * A document starts with a header holding a magic number, the format version and the
+ * quantization steps, followed by one length-prefixed record per brush. A record holds the
+ * brush attributes and the stroke samples, whose coordinates, pressure, angles and timestamps
+ * are quantized and stored as zigzag varint deltas from the previous sample.
+ *
+ * Dynamic paint handlers can't be serialized, brushes are read back without one.
+ */
+object InkFormat {
+    const val VERSION = 1
+
+    // "INKF"
+    private const val MAGIC = 0x494E4B46
+
+    // quantization steps: 1/16 pixel, 1/4096 pressure, 1/1024 radian
+    private const val COORDINATE_STEPS = 16
+    private const val PRESSURE_STEPS = 4096
+    private const val ANGLE_STEPS = 1024
+
+    // record flags
+    private const val FLAG_ANGLES = 1
+    private const val FLAG_VARYING_STATE = 2
+
+    private const val MAX_VARINT_BYTES = 10
+    private const val MAX_HEADER_BYTES = 4 + 4 * MAX_VARINT_BYTES
+    private const val DEFAULT_BUFFER_SIZE = 64 * 1024
+
+    // longest record accepted, about a million samples; every sample takes at least 4 bytes
+    private const val MAX_RECORD_BYTES = 64 * 1024 * 1024
+    private const val MIN_SAMPLE_BYTES = 4
+
+    /**
+     * Writes [brushes] to [channel], leaving the channel open.
+     */
+    fun write(brushes: List<InkView.Brush>, channel: WritableByteChannel) {
+        val writer = Writer(channel)
+        brushes.forEach { writer.write(it) }
+        writer.flush()
+    }
+
+    /**
+     * Reads all the brushes of the document in [channel], leaving the channel open.
+     */
+    fun read(channel: ReadableByteChannel): List<InkView.Brush> = Reader(channel).readAll()
+
+    /**
+     * Reads all the brushes of the document in [file] through a memory mapping, so the file
+     * content is paged in by the system instead of being copied through a stream buffer.
+     */
+    fun map(file: File): List<InkView.Brush> {
+        val buffer = RandomAccessFile(file, "r").use {
+            it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length())
+        }
+        return Reader(buffer).readAll()
+    }
+
+    /**
+     * Streams brushes into a channel. Records are buffered, call [flush] or [close] once done.
+     */
+    class Writer(
+        private val channel: WritableByteChannel,
+        bufferSize: Int = DEFAULT_BUFFER_SIZE
+    ) : Closeable {
+        private val buffer = ByteBuffer.allocate(maxOf(bufferSize, MAX_HEADER_BYTES))
+        private val record = ByteSink()
+
+        init {
+            record.writeInt(MAGIC)
+            record.writeVarint(VERSION.toLong())
+            record.writeVarint(COORDINATE_STEPS.toLong())
+            record.writeVarint(PRESSURE_STEPS.toLong())
+            record.writeVarint(ANGLE_STEPS.toLong())
+            put(record.bytes, record.size)
+        }
+
+        fun write(brush: InkView.Brush) {
+            encode(brush)
+            val body = record.size
+            // the record is prefixed with its length, so it is always read in one piece
+            record.writeVarint(body.toLong())
+            put(record.bytes, body, record.size - body)
+            put(record.bytes, 0, body)
+        }
+
+        fun flush() {
+            buffer.flip()
+            while (buffer.hasRemaining()) {
+                channel.write(buffer)
+            }
+            buffer.clear()
+        }
+
+        /**
+         * Flushes the buffered records and closes the channel.
+         */
+        override fun close() {
+            flush()
+            channel.close()
+        }
+
+        private fun encode(brush: InkView.Brush) {
+            val stroke = brush.stroke
+            val size = stroke.size
+            var flags = 0
+            for (i in 0 until size) {
+                if (stroke.getTilt(i) != 0f || stroke.getOrientation(i) != 0f) {
+                    flags = flags or FLAG_ANGLES
+                }
+                if (i > 0 && state(stroke, i) != state(stroke, 0)) {
+                    flags = flags or FLAG_VARYING_STATE
+                }
+            }
+
+            record.reset()
+            record.writeInt(brush.color)
+            record.writeInt(brush.strokeWidth.toRawBits())
+            record.writeInt(brush.strokeWidthMax.toRawBits())
+            record.writeVarint(flags.toLong())
+            record.writeVarint(size.toLong())
+            if (size > 0 && flags and FLAG_VARYING_STATE == 0) {
+                record.writeVarint(state(stroke, 0).toLong())
+            }
+
+            var x = 0
+            var y = 0
+            var pressure = 0
+            var tilt = 0
+            var orientation = 0
+            var timestamp = 0L
+            for (i in 0 until size) {
+                val qx = (stroke.getX(i) * COORDINATE_STEPS).roundToInt()
+                val qy = (stroke.getY(i) * COORDINATE_STEPS).roundToInt()
+                val qPressure = (stroke.getPressure(i) * PRESSURE_STEPS).roundToInt()
+                record.writeZigZag((qx - x).toLong())
+                record.writeZigZag((qy - y).toLong())
+                record.writeZigZag((qPressure - pressure).toLong())
+                record.writeZigZag(stroke.getTimestamp(i) - timestamp)
+                x = qx
+                y = qy
+                pressure = qPressure
+                timestamp = stroke.getTimestamp(i)
+
+                if (flags and FLAG_ANGLES != 0) {
+                    val qTilt = (stroke.getTilt(i) * ANGLE_STEPS).roundToInt()
+                    val qOrientation = (stroke.getOrientation(i) * ANGLE_STEPS).roundToInt()
+                    record.writeZigZag((qTilt - tilt).toLong())
+                    record.writeZigZag((qOrientation - orientation).toLong())
+                    tilt = qTilt
+                    orientation = qOrientation
+                }
+                if (flags and FLAG_VARYING_STATE != 0) {
+                    record.writeVarint(state(stroke, i).toLong())
+                }
+            }
+        }
+
+        private fun put(bytes: ByteArray, offset: Int, length: Int) {
+            var position = offset
+            val end = offset + length
+            while (position < end) {
+                if (!buffer.hasRemaining()) {
+                    flush()
+                }
+                val count = minOf(buffer.remaining(), end - position)
+                buffer.put(bytes, position, count)
+                position += count
+            }
+        }
+
+        private fun put(bytes: ByteArray, length: Int) = put(bytes, 0, length)
+    }
+
+    /**
+     * Reads brushes one at a time, either streaming from a channel or straight from a buffer
+     * such as a memory mapped file.
+     */
+    class Reader private constructor(
+        private val channel: ReadableByteChannel?,
+        private var buffer: ByteBuffer
+    ) : Closeable {
+
+        /**
+         * Reads from [channel] through a buffer of [bufferSize] bytes, grown if a single record
+         * doesn't fit in it.
+         */
+        constructor(channel: ReadableByteChannel, bufferSize: Int = DEFAULT_BUFFER_SIZE) :
+            this(channel, ByteBuffer.allocate(maxOf(bufferSize, MAX_HEADER_BYTES)).also { it.flip() })
+
+        /**
+         * Reads from the remaining content of [buffer].
+         */
+        constructor(buffer: ByteBuffer) : this(null, buffer.slice())
+
+        val version: Int
+        private val coordinateSteps: Float
+        private val pressureSteps: Float
+        private val angleSteps: Float
+
+        init {
+            fill(MAX_HEADER_BYTES)
+            if (buffer.remaining() < 4 || buffer.int != MAGIC) {
+                throw IOException("Not an ink document")
+            }
+            version = readVarint().toInt()
+            if (version > VERSION) {
+                throw IOException("Unsupported ink format version $version")
+            }
+            coordinateSteps = readVarint().toFloat()
+            pressureSteps = readVarint().toFloat()
+            angleSteps = readVarint().toFloat()
+        }
+
+        /**
+         * @return the next brush, or null at the end of the document
+         */
+        fun read(): InkView.Brush? {
+            fill(MAX_VARINT_BYTES)
+            if (!buffer.hasRemaining()) {
+                return null
+            }
+            val length = readVarint()
+            if (length < 0 || length > MAX_RECORD_BYTES) {
+                throw IOException("Malformed ink document")
+            }
+            if (!fill(length.toInt())) {
+                throw EOFException("Truncated ink record")
+            }
+            val start = buffer.position()
+            val end = start + length.toInt()
+            // a record can't be decoded past its length, whatever its content claims
+            val limit = buffer.limit()
+            buffer.limit(end)
+            val brush = try {
+                decode(length.toInt())
+            } catch (e: BufferUnderflowException) {
+                throw IOException("Malformed ink document", e)
+            } finally {
+                buffer.limit(limit)
+            }
+            // skip fields added by newer versions
+            buffer.position(end)
+            return brush
+        }
+
+        fun readAll(): List<InkView.Brush> {
+            val brushes = mutableListOf<InkView.Brush>()
+            while (true) {
+                brushes.add(read() ?: return brushes)
+            }
+        }
+
+        override fun close() {
+            channel?.close()
+        }
+
+        private fun decode(length: Int): InkView.Brush {
+            val color = buffer.int
+            val strokeWidth = Float.fromBits(buffer.int)
+            val strokeWidthMax = Float.fromBits(buffer.int)
+            val flags = readVarint().toInt()
+            val size = readVarint().toInt()
+            if (size < 0 || size > length / MIN_SAMPLE_BYTES) {
+                throw IOException("Malformed ink document")
+            }
+            var state = if (size > 0 && flags and FLAG_VARYING_STATE == 0) readVarint().toInt() else 0
+
+            val stroke = InputManager.ExtendedStroke(maxOf(size, 1))
+            var x = 0L
+            var y = 0L
+            var pressure = 0L
+            var tilt = 0L
+            var orientation = 0L
+            var timestamp = 0L
+            for (i in 0 until size) {
+                x += readZigZag()
+                y += readZigZag()
+                pressure += readZigZag()
+                timestamp += readZigZag()
+                if (flags and FLAG_ANGLES != 0) {
+                    tilt += readZigZag()
+                    orientation += readZigZag()
+                }
+                if (flags and FLAG_VARYING_STATE != 0) {
+                    state = readVarint().toInt()
+                }
+                stroke.addSample(
+                    pointerTypes[(state shr 2).coerceAtMost(pointerTypes.size - 1)],
+                    x / coordinateSteps,
+                    y / coordinateSteps,
+                    pressure / pressureSteps,
+                    orientation / angleSteps,
+                    tilt / angleSteps,
+                    timestamp,
+                    state and 1 != 0,
+                    state and 2 != 0
+                )
+            }
+            return InkView.Brush(color, strokeWidth, strokeWidthMax, null, stroke)
+        }
+
+        /**
+         * Makes sure at least [count] bytes are buffered, reading more from the channel if
+         * needed. The buffer grows with the bytes actually read, so a corrupt length can't
+         * allocate more than the document holds.
+         *
+         * @return false if the document ends before
+         */
+        private fun fill(count: Int): Boolean {
+            if (buffer.remaining() >= count) {
+                return true
+            }
+            val source = channel ?: return false
+            buffer.compact()
+            while (buffer.position() < count) {
+                if (!buffer.hasRemaining()) {
+                    val grown = ByteBuffer.allocate(minOf(buffer.capacity() * 2, count))
+                    buffer.flip()
+                    grown.put(buffer)
+                    buffer = grown
+                }
+                if (source.read(buffer) < 0) {
+                    break
+                }
+            }
+            buffer.flip()
+            return buffer.remaining() >= count
+        }
+
+        private fun readVarint(): Long {
+            var result = 0L
+            var shift = 0
+            while (shift < 64) {
+                if (!buffer.hasRemaining()) {
+                    throw EOFException("Truncated ink document")
+                }
+                val b = buffer.get().toInt()
+                result = result or ((b and 0x7f).toLong() shl shift)
+                if (b and 0x80 == 0) {
+                    return result
+                }
+                shift += 7
+            }
+            throw IOException("Malformed varint")
+        }
+
+        private fun readZigZag(): Long {
+            val value = readVarint()
+            return (value ushr 1) xor -(value and 1)
+        }
+    }
+
+    /**
+     * Growable byte array a record is encoded into.
+     */
+    private class ByteSink {
+        var bytes = ByteArray(1024)
+            private set
+        var size = 0
+            private set
+
+        fun reset() {
+            size = 0
+        }
+
+        fun writeInt(value: Int) {
+            ensureCapacity(4)
+            bytes[size++] = (value ushr 24).toByte()
+            bytes[size++] = (value ushr 16).toByte()
+            bytes[size++] = (value ushr 8).toByte()
+            bytes[size++] = value.toByte()
+        }
+
+        fun writeVarint(value: Long) {
+            ensureCapacity(MAX_VARINT_BYTES)
+            var v = value
+            while (v and 0x7fL.inv() != 0L) {
+                bytes[size++] = ((v and 0x7f) or 0x80).toByte()
+                v = v ushr 7
+            }
+            bytes[size++] = v.toByte()
+        }
+
+        fun writeZigZag(value: Long) = writeVarint((value shl 1) xor (value shr 63))
+
+        private fun ensureCapacity(count: Int) {
+            if (size + count > bytes.size) {
+                bytes = bytes.copyOf(maxOf(bytes.size * 2, size + count))
+            }
+        }
+    }
+
+    private val pointerTypes = InputManager.PointerType.values()
+
+    private fun state(stroke: InputManager.ExtendedStroke, index: Int): Int {
+        var state = stroke.getPointerType(index).ordinal shl 2
+        if (stroke.isPrimaryButtonPressed(index)) state = state or 1
+        if (stroke.isSecondaryButtonPressed(index)) state = state or 2
+        return state
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+/**
+ * Undo/redo stack of the changes made to the committed strokes, with raster checkpoints.
+ *
+ * A checkpoint is a snapshot of the committed raster after a given number of steps. Going back
+ * to an earlier state restores the nearest checkpoint and replays only the steps after it, so
+ * the cost doesn't grow with the document. Checkpoints are kept under [memoryBudget], the
+ * oldest ones are released first.
+ *
+ * @param S type of the raster snapshots
+ * @param sizeOf memory held by a snapshot, in bytes
+ * @param release frees a snapshot that is not needed anymore
+ */
+internal class InkHistory<S>(
+    private val sizeOf: (S) -> Long,
+    private val release: (S) -> Unit
+) {
+    /**
+     * [pieces] replacing the committed [original] at [position] in the brush list and at
+     * [order] in the drawing order, as done by the vector eraser
+     */
+    class Replacement(
+        val original: InkView.Brush,
+        val position: Int,
+        val order: Long,
+        val pieces: List<InkView.Brush>
+    )
+
+    /**
+     * One undoable change: a stroke added at the end of the brush list, or the replacements
+     * made by one eraser stroke
+     */
+    class Step(val added: InkView.Brush?, val replacements: List<Replacement>)
+
+    class Checkpoint<S>(val position: Int, val snapshot: S)
+
+    var maxSteps = DEFAULT_MAX_STEPS
+    var checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL
+    var memoryBudget = DEFAULT_MEMORY_BUDGET
+        set(value) {
+            field = value
+            trimCheckpoints()
+        }
+
+    private val steps = ArrayList<Step>()
+    private val checkpoints = ArrayList<Checkpoint<S>>()
+
+    /**
+     * Number of steps applied, the steps after it can be redone
+     */
+    var position = 0
+        private set
+
+    val canUndo: Boolean
+        get() = position > 0
+
+    val canRedo: Boolean
+        get() = position < steps.size
+
+    val checkpointBytes: Long
+        get() = checkpoints.sumOf { sizeOf(it.snapshot) }
+
+    /**
+     * True if a checkpoint should be taken at the current position
+     */
+    val checkpointDue: Boolean
+        get() {
+            val last = checkpoints.lastOrNull()?.position ?: -checkpointInterval
+            return last != position && position - last >= checkpointInterval
+        }
+
+    /**
+     * Records a new step after the current position, dropping the steps that could be redone.
+     */
+    fun push(step: Step) {
+        truncate()
+        steps.add(step)
+        position++
+        if (steps.size > maxSteps) {
+            steps.removeAt(0)
+            position--
+            // the state before the dropped step can't be reached anymore
+            val iterator = checkpoints.listIterator()
+            while (iterator.hasNext()) {
+                val checkpoint = iterator.next()
+                if (checkpoint.position == 0) {
+                    release(checkpoint.snapshot)
+                    iterator.remove()
+                } else {
+                    iterator.set(Checkpoint(checkpoint.position - 1, checkpoint.snapshot))
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the step to revert, or null if there is none
+     */
+    fun undo(): Step? {
+        if (!canUndo) {
+            return null
+        }
+        position--
+        return steps[position]
+    }
+
+    /**
+     * @return the step to apply again, or null if there is none
+     */
+    fun redo(): Step? {
+        if (!canRedo) {
+            return null
+        }
+        return steps[position++]
+    }
+
+    /**
+     * Adds a snapshot of the state at the current position.
+     */
+    fun addCheckpoint(snapshot: S) {
+        truncate()
+        if (checkpoints.lastOrNull()?.position == position) {
+            release(checkpoints.removeAt(checkpoints.size - 1).snapshot)
+        }
+        checkpoints.add(Checkpoint(position, snapshot))
+        trimCheckpoints()
+    }
+
+    /**
+     * @return the checkpoint closest before or at [at], or null if there is none
+     */
+    fun checkpointBefore(at: Int): Checkpoint<S>? = checkpoints.lastOrNull { it.position <= at }
+
+    /**
+     * Steps between positions [from] and [to].
+     */
+    fun steps(from: Int, to: Int): List<Step> = steps.subList(from, to)
+
+    /**
+     * Releases all the checkpoints, when the raster they hold doesn't match the steps anymore.
+     */
+    fun dropCheckpoints() {
+        checkpoints.forEach { release(it.snapshot) }
+        checkpoints.clear()
+    }
+
+    fun clear() {
+        dropCheckpoints()
+        steps.clear()
+        position = 0
+    }
+
+    /**
+     * Drops the steps after the current position, and the checkpoints taken after it.
+     */
+    private fun truncate() {
+        if (position < steps.size) {
+            steps.subList(position, steps.size).clear()
+        }
+        while (checkpoints.isNotEmpty() && checkpoints.last().position > position) {
+            release(checkpoints.removeAt(checkpoints.size - 1).snapshot)
+        }
+    }
+
+    private fun trimCheckpoints() {
+        var bytes = checkpointBytes
+        while (bytes > memoryBudget && checkpoints.isNotEmpty()) {
+            val oldest = checkpoints.removeAt(0)
+            bytes -= sizeOf(oldest.snapshot)
+            release(oldest.snapshot)
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_STEPS = 200
+        const val DEFAULT_CHECKPOINT_INTERVAL = 20
+        const val DEFAULT_MEMORY_BUDGET = 32L * 1024 * 1024
+    }
+}
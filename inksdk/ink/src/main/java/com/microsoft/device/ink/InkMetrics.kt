@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import androidx.tracing.Trace
+
+/**
+ * Statistics of one frame presented by an [InkView], reported to
+ * [InkView.MetricsListener.onFrame]. The instance is reused from frame to frame, copy the
+ * values to keep them after the callback returns.
+ */
+class FrameMetrics internal constructor() {
+    /**
+     * Stroke samples received from the input since the previous frame
+     */
+    var samples = 0
+        internal set
+
+    /**
+     * Curve segments rasterized since the previous frame, replayed strokes included
+     */
+    var segments = 0
+        internal set
+
+    /**
+     * Pixels copied to the surface
+     */
+    var pixelsBlitted = 0L
+        internal set
+
+    /**
+     * Time between the event time of the newest sample and the post of the frame in
+     * milliseconds, -1 if no sample was received since the previous frame
+     */
+    var inputLatencyMillis = -1L
+        internal set
+
+    /**
+     * False if the surface rejected the frame, the next frame is then presented in full
+     */
+    var posted = true
+        internal set
+
+    internal fun reset() {
+        samples = 0
+        segments = 0
+        pixelsBlitted = 0
+        inputLatencyMillis = -1
+        posted = true
+    }
+}
+
+/**
+ * Statistics of the frames presented while strokes were drawn, reported to
+ * [InkView.MetricsListener.onStroke] once no stroke is active anymore. Strokes drawn at the
+ * same time by several pointers are reported together. The instance is reused.
+ */
+class StrokeMetrics internal constructor() {
+    var samples = 0
+        internal set
+    var segments = 0
+        internal set
+    var frames = 0
+        internal set
+
+    /**
+     * Frames the surface rejected
+     */
+    var failedFrames = 0
+        internal set
+    var pixelsBlitted = 0L
+        internal set
+
+    /**
+     * Largest [FrameMetrics.inputLatencyMillis] of the frames, -1 if none had samples
+     */
+    var maxInputLatencyMillis = -1L
+        internal set
+
+    /**
+     * Average [FrameMetrics.inputLatencyMillis] over the frames that had samples
+     */
+    val averageInputLatencyMillis: Float
+        get() = if (latencyFrames > 0) latencySum.toFloat() / latencyFrames else -1f
+
+    private var latencySum = 0L
+    private var latencyFrames = 0
+
+    internal fun add(frame: FrameMetrics) {
+        samples += frame.samples
+        segments += frame.segments
+        frames++
+        if (!frame.posted) {
+            failedFrames++
+        }
+        pixelsBlitted += frame.pixelsBlitted
+        if (frame.inputLatencyMillis >= 0) {
+            latencySum += frame.inputLatencyMillis
+            latencyFrames++
+            maxInputLatencyMillis = maxOf(maxInputLatencyMillis, frame.inputLatencyMillis)
+        }
+    }
+
+    internal fun reset() {
+        samples = 0
+        segments = 0
+        frames = 0
+        failedFrames = 0
+        pixelsBlitted = 0
+        maxInputLatencyMillis = -1
+        latencySum = 0
+        latencyFrames = 0
+    }
+}
+
+// system trace section around [block]
+internal inline fun <T> trace(section: String, block: () -> T): T {
+    Trace.beginSection(section)
+    try {
+        return block()
+    } finally {
+        Trace.endSection()
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.PorterDuff
+import android.graphics.Rect
+import android.graphics.RectF
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import kotlin.math.ceil
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Headless renderer drawing saved ink into bitmaps without an [InkView], for page thumbnails
+ * and previews.
+ *
+ * The target is split into square tiles that are rasterized in parallel on a [ForkJoinPool].
+ * The brushes are first binned into the tiles their bounds touch, so each tile only draws the
+ * strokes that can reach it, in drawing order. Tiles don't overlap, the workers draw straight
+ * into the target, each clipped to its own tile.
+ *
+ * The brushes are only read, but the [InkView.DynamicPaintHandler]s they use are called from
+ * several threads at once.
+ *
+ * @param density display density used to convert stroke widths from dp to pixels
+ * @param pool pool the tiles are rasterized on
+ * @param tileSize width and height of a tile in pixels
+ */
+class InkRasterizer @JvmOverloads constructor(
+    private val density: Float,
+    private val pool: ForkJoinPool = ForkJoinPool.commonPool(),
+    val tileSize: Int = DEFAULT_TILE_SIZE
+) {
+
+    private class Job(
+        val target: Bitmap,
+        val region: Rect,
+        val scale: Float,
+        val pressureEnabled: Boolean,
+        val columns: Int,
+        val bins: Array<ArrayList<InkView.Brush>>
+    )
+
+    // splits the tiles from..until in halves until a single tile is left
+    private inner class TileTask(private val job: Job, private val from: Int, private val until: Int) : RecursiveAction() {
+        override fun compute() {
+            if (until - from <= 1) {
+                if (from < until) {
+                    renderTile(job, from)
+                }
+                return
+            }
+            val middle = (from + until) ushr 1
+            invokeAll(TileTask(job, from, middle), TileTask(job, middle, until))
+        }
+    }
+
+    // renderers hold scratch state, every worker thread gets its own
+    private val renderers = object : ThreadLocal<StrokeRenderer>() {
+        override fun initialValue() = StrokeRenderer(density)
+    }
+
+    /**
+     * Renders [brushes] into a new bitmap as described by [options], the region defaulting to
+     * the bounds of the ink.
+     */
+    @JvmOverloads
+    fun rasterize(
+        brushes: List<InkView.Brush>,
+        options: ExportOptions = ExportOptions(),
+        pressureEnabled: Boolean = false
+    ): Bitmap {
+        val region = options.region ?: inkBounds(brushes)
+        val width = max(1, ceil(region.width() * options.scale).toInt())
+        val height = max(1, ceil(region.height() * options.scale).toInt())
+        val bitmap = Bitmap.createBitmap(width, height, options.config)
+        rasterize(brushes, bitmap, region, options.scale, pressureEnabled)
+        if (options.backgroundColor != Color.TRANSPARENT) {
+            // behind the ink, so the pixel eraser doesn't cut through the background
+            Canvas(bitmap).drawColor(options.backgroundColor, PorterDuff.Mode.DST_OVER)
+        }
+        return bitmap
+    }
+
+    /**
+     * Renders [brushes] over the content of [target], [region] of the ink, in view coordinates,
+     * being drawn at the top left corner of the bitmap scaled by [scale]. Blocks until all tiles
+     * are rasterized.
+     */
+    @JvmOverloads
+    fun rasterize(
+        brushes: List<InkView.Brush>,
+        target: Bitmap,
+        region: Rect,
+        scale: Float = 1f,
+        pressureEnabled: Boolean = false
+    ) {
+        require(scale > 0f) { "Invalid scale $scale" }
+        val columns = (target.width + tileSize - 1) / tileSize
+        val rows = (target.height + tileSize - 1) / tileSize
+        if (columns == 0 || rows == 0) {
+            return
+        }
+        val job = Job(target, Rect(region), scale, pressureEnabled, columns, binBrushes(brushes, region, scale, columns, rows))
+        pool.invoke(TileTask(job, 0, columns * rows))
+    }
+
+    /**
+     * Sorts [brushes] into the tiles their bounds touch, keeping the drawing order in every tile.
+     */
+    private fun binBrushes(
+        brushes: List<InkView.Brush>,
+        region: Rect,
+        scale: Float,
+        columns: Int,
+        rows: Int
+    ): Array<ArrayList<InkView.Brush>> {
+        val bins = Array(columns * rows) { ArrayList<InkView.Brush>() }
+        val renderer = renderers.get()!!
+        val bounds = RectF()
+        val tileExtent = tileSize / scale
+        for (brush in brushes) {
+            renderer.computeBounds(brush, bounds)
+            if (bounds.isEmpty) {
+                continue
+            }
+            val firstColumn = floor((bounds.left - region.left) / tileExtent).toInt()
+            val lastColumn = floor((bounds.right - region.left) / tileExtent).toInt()
+            val firstRow = floor((bounds.top - region.top) / tileExtent).toInt()
+            val lastRow = floor((bounds.bottom - region.top) / tileExtent).toInt()
+            if (lastColumn < 0 || lastRow < 0 || firstColumn >= columns || firstRow >= rows) {
+                continue
+            }
+            for (row in max(firstRow, 0)..min(lastRow, rows - 1)) {
+                for (column in max(firstColumn, 0)..min(lastColumn, columns - 1)) {
+                    bins[row * columns + column].add(brush)
+                }
+            }
+        }
+        return bins
+    }
+
+    private fun renderTile(job: Job, tile: Int) {
+        val brushes = job.bins[tile]
+        if (brushes.isEmpty()) {
+            return
+        }
+        val left = (tile % job.columns) * tileSize
+        val top = (tile / job.columns) * tileSize
+        val canvas = Canvas(job.target)
+        canvas.clipRect(left, top, min(left + tileSize, job.target.width), min(top + tileSize, job.target.height))
+        canvas.scale(job.scale, job.scale)
+        canvas.translate(-job.region.left.toFloat(), -job.region.top.toFloat())
+        val renderer = renderers.get()!!
+        for (i in brushes.indices) {
+            renderer.renderComplete(canvas, canvas, brushes[i], job.pressureEnabled)
+        }
+    }
+
+    private fun inkBounds(brushes: List<InkView.Brush>): Rect {
+        val renderer = renderers.get()!!
+        val bounds = RectF()
+        val union = RectF()
+        for (brush in brushes) {
+            renderer.computeBounds(brush, bounds)
+            union.union(bounds)
+        }
+        if (union.isEmpty) {
+            return Rect(0, 0, 1, 1)
+        }
+        return Rect(floor(union.left).toInt(), floor(union.top).toInt(), ceil(union.right).toInt(), ceil(union.bottom).toInt())
+    }
+
+    companion object {
+        const val DEFAULT_TILE_SIZE = 256
+    }
+}
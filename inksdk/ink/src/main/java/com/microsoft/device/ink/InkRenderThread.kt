@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Process
+import android.view.Choreographer
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Dedicated thread rasterizing the strokes the UI thread hands off to it.
+ *
+ * The samples of a handed off stroke arrive through the [SampleRingBuffer] returned by [start],
+ * which [InputManager] fills, and the brush they are drawn with through [handOff]. The queue is
+ * drained at most once per frame of the render thread and everything drained is presented in a
+ * single frame. The strokes are drawn through [host] while its render lock is held.
+ *
+ * [start], [stop], [handOff] and [takeHandedOff] are called from the UI thread.
+ */
+internal class InkRenderThread(private val host: Host) {
+
+    /**
+     * Rendering state of the view the strokes are drawn into, only called with [renderLock]
+     * held
+     */
+    interface Host {
+        val renderLock: Any
+
+        val motionPredictor: InputManager.MotionPredictor?
+
+        /**
+         * @return false if [stroke], whose first sample was just received, is not drawn on the
+         * render thread
+         */
+        fun isRendered(stroke: InputManager.ExtendedStroke): Boolean
+
+        fun addActiveBrush(brush: InkView.Brush)
+
+        fun removeActiveBrush(brush: InkView.Brush)
+
+        fun drawStroke(brush: InkView.Brush, final: Boolean)
+
+        /**
+         * Called once [brush] was drawn completely, it doesn't share its stroke with the render
+         * thread
+         */
+        fun finishStroke(brush: InkView.Brush)
+
+        fun discardStroke(brush: InkView.Brush)
+
+        fun presentFrame()
+
+        /**
+         * Called on the render thread once every handed off stroke was drawn
+         */
+        fun onStrokesRendered()
+    }
+
+    private var thread: HandlerThread? = null
+    private var handler: Handler? = null
+
+    @Volatile
+    private var sampleBuffer: SampleRingBuffer? = null
+    private val startedBrushes = ConcurrentLinkedQueue<InkView.Brush>()
+    private val drainScheduled = AtomicBoolean()
+    private val drainRunnable = Runnable { drain() }
+
+    @Volatile
+    private var frames: FrameScheduler? = null
+
+    // counts the handed off strokes that were not drawn completely yet
+    private val pendingStrokes = AtomicInteger()
+    private var handedOffBrush: InkView.Brush? = null
+
+    // render thread state, guarded by the render lock of the host
+    private var renderBrush: InkView.Brush? = null
+    private val renderStroke = InputManager.ExtendedStroke()
+    private val renderPrediction = InputManager.ExtendedStroke(8)
+    private var renderingStroke = false
+
+    val isRunning: Boolean
+        get() = thread != null
+
+    /**
+     * True while a handed off stroke is drawn or waits to be
+     */
+    val hasPendingStrokes: Boolean
+        get() = handedOffBrush != null || pendingStrokes.get() > 0
+
+    /**
+     * Starts the thread if it is not running.
+     *
+     * @return the queue the samples of the handed off strokes are pushed into
+     */
+    fun start(): SampleRingBuffer {
+        sampleBuffer?.let { return it }
+        val thread = HandlerThread("InkView-render", Process.THREAD_PRIORITY_DISPLAY)
+        thread.start()
+        this.thread = thread
+        val handler = Handler(thread.looper)
+        this.handler = handler
+        val buffer = SampleRingBuffer()
+        sampleBuffer = buffer
+        // drains wait for the frames of the render thread once its choreographer exists
+        handler.post {
+            frames = FrameScheduler(Choreographer.getInstance()) { drain() }
+        }
+        return buffer
+    }
+
+    /**
+     * Draws the samples queued so far and stops the thread, waiting for it to exit.
+     */
+    fun stop() {
+        val thread = thread ?: return
+        frames = null
+        val buffer = sampleBuffer
+        handler?.post { drain(buffer) }
+        sampleBuffer = null
+        this.thread = null
+        handler = null
+        thread.quitSafely()
+        thread.join()
+        synchronized(host.renderLock) {
+            renderBrush?.let { host.removeActiveBrush(it) }
+            renderBrush = null
+            renderingStroke = false
+        }
+        startedBrushes.clear()
+        handedOffBrush = null
+        pendingStrokes.set(0)
+    }
+
+    /**
+     * Hands [brush], whose samples are pushed into the queue, over to the render thread.
+     *
+     * @return false if the thread is not running
+     */
+    fun handOff(brush: InkView.Brush): Boolean {
+        if (sampleBuffer == null) {
+            return false
+        }
+        handedOffBrush = brush
+        pendingStrokes.incrementAndGet()
+        startedBrushes.offer(brush)
+        scheduleDrain()
+        return true
+    }
+
+    fun isHandedOff(stroke: InputManager.ExtendedStroke): Boolean = stroke === handedOffBrush?.stroke
+
+    /**
+     * @return the handed off brush of [stroke], which is not tracked anymore, or null if
+     * [stroke] was not handed off
+     */
+    fun takeHandedOff(stroke: InputManager.ExtendedStroke): InkView.Brush? {
+        val brush = handedOffBrush
+        if (brush == null || stroke !== brush.stroke) {
+            return null
+        }
+        handedOffBrush = null
+        return brush
+    }
+
+    /**
+     * @return the prediction of [brush] if it is drawn by the render thread. Call with the render
+     * lock held.
+     */
+    fun predictionOf(brush: InkView.Brush): InputManager.ExtendedStroke? {
+        return if (brush === renderBrush) renderPrediction else null
+    }
+
+    /**
+     * Stops drawing the stroke in progress, after the host dropped its active brushes. Call with
+     * the render lock held.
+     */
+    fun forgetBrush() {
+        renderBrush = null
+    }
+
+    fun scheduleDrain() {
+        val frames = frames
+        if (frames != null) {
+            frames.request()
+            return
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            handler?.post(drainRunnable) ?: drainScheduled.set(false)
+        }
+    }
+
+    /**
+     * Runs on the render thread once per frame, rasterizes the samples queued in [queue] since
+     * the last call and presents them in a single frame.
+     */
+    private fun drain(queue: SampleRingBuffer? = sampleBuffer) {
+        trace("InkView.drainSamples") {
+            drainScheduled.set(false)
+            val buffer = queue ?: return
+            synchronized(host.renderLock) {
+                var drawn = false
+                loop@ while (true) {
+                    val kind = buffer.poll(renderStroke)
+                    when (kind) {
+                        SampleRingBuffer.EMPTY -> break@loop
+                        SampleRingBuffer.STROKE_BEGIN -> {
+                            renderBrush?.let { host.removeActiveBrush(it) }
+                            renderBrush = null
+                            renderPrediction.reset()
+                            renderingStroke = host.isRendered(renderStroke)
+                        }
+                        SampleRingBuffer.STROKE_END, SampleRingBuffer.STROKE_CANCEL -> if (renderingStroke) {
+                            renderingStroke = false
+                            renderPrediction.reset()
+                            val brush = if (bindRenderBrush()) renderBrush else null
+                            renderBrush = null
+                            if (brush != null) {
+                                host.removeActiveBrush(brush)
+                                if (kind == SampleRingBuffer.STROKE_END) {
+                                    host.drawStroke(brush, final = true)
+                                    // the render stroke is reused, a copy waits for the merge
+                                    host.finishStroke(brush.copy(stroke = renderStroke.copy()))
+                                } else {
+                                    host.discardStroke(brush)
+                                }
+                                drawn = true
+                            }
+                            if (pendingStrokes.decrementAndGet() == 0) {
+                                host.onStrokesRendered()
+                            }
+                        }
+                    }
+                }
+
+                val brush = if (renderingStroke && bindRenderBrush()) renderBrush else null
+                if (brush != null) {
+                    renderPrediction.reset()
+                    host.motionPredictor?.predict(renderStroke, renderPrediction)
+                    host.drawStroke(brush, final = false)
+                    drawn = true
+                }
+                // one frame for everything drained
+                if (drawn) {
+                    host.presentFrame()
+                }
+            }
+        }
+    }
+
+    /**
+     * Pairs the stroke rebuilt on the render thread with the brush the UI thread created for
+     * it.
+     *
+     * @return false if the brush was not handed over yet
+     */
+    private fun bindRenderBrush(): Boolean {
+        if (renderBrush == null) {
+            renderBrush = startedBrushes.poll()?.copy(stroke = renderStroke)?.also {
+                host.addActiveBrush(it)
+            }
+        }
+        return renderBrush != null
+    }
+}
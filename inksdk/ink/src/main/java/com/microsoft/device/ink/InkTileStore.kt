@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Picture
+import android.graphics.Rect
+import android.graphics.RectF
+import android.util.LongSparseArray
+import kotlin.math.ceil
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Sparse raster backing store made of ARGB_8888 tiles in view coordinates.
+ *
+ * Tiles are only allocated when ink is first drawn into them, so memory scales with the inked
+ * area instead of the view size. Drawing is recorded once into a [Picture] and then replayed into
+ * every tile the recorded bounds touch.
+ *
+ * The store covers one or more panes, one per screen when the view spans a hinge. Each pane has
+ * its own grid of square tiles starting at its top left corner, the tiles on its right and bottom
+ * edges are cut to it, so nothing is allocated outside of the panes and the ink of a pane can't
+ * bleed into another one.
+ *
+ * @param tileSize width and height of a tile in pixels
+ */
+internal class InkTileStore(val tileSize: Int = DEFAULT_TILE_SIZE) {
+
+    private class Tile(val pane: Int, val column: Int, val row: Int, val left: Int, val top: Int, var bitmap: Bitmap) {
+        val canvas = Canvas(bitmap)
+
+        // true while a snapshot holds the bitmap, it is copied before the tile is drawn into
+        var shared = false
+    }
+
+    /**
+     * Content of the tiles of a store at some point in time, see [snapshot]. The bitmaps can be
+     * shared with the store and with other snapshots, they are freed once none of them holds
+     * them anymore.
+     */
+    class Snapshot internal constructor(
+        internal val panes: IntArray,
+        internal val columns: IntArray,
+        internal val rows: IntArray,
+        internal val bitmaps: Array<Bitmap>
+    ) {
+        val bytes: Long
+            get() = bitmaps.sumOf { it.allocationByteCount.toLong() }
+    }
+
+    private val tiles = LongSparseArray<Tile>()
+    private val panes = ArrayList<Rect>()
+    private val pool = ArrayList<Bitmap>()
+    private val picture = Picture()
+    private var recordingCanvas: Canvas? = null
+    private val srcRect = Rect()
+    private val dstRect = Rect()
+    private val tileRect = Rect()
+    private val inkRect = Rect()
+    private val eraseRect = Rect()
+
+    var width = 0
+        private set
+    var height = 0
+        private set
+
+    val tileCount: Int
+        get() = tiles.size()
+
+    val isEmpty: Boolean
+        get() = tiles.size() == 0
+
+    /**
+     * Memory held by the allocated tiles, in bytes
+     */
+    val allocatedBytes: Long
+        get() {
+            var bytes = 0L
+            for (i in 0 until tiles.size()) {
+                val bitmap = tiles.valueAt(i).bitmap
+                bytes += bitmap.width.toLong() * bitmap.height * BYTES_PER_PIXEL
+            }
+            return bytes
+        }
+
+    /**
+     * Changes the area tiles can be allocated in to [panes], or to the whole bounds when null.
+     * Tiles that don't match the new panes are released.
+     *
+     * @param exposed receives the bounding box of the area of the new panes that may miss ink,
+     * because it was outside of the old panes or its tiles were released, it needs to be
+     * rasterized again; empty if nothing was lost
+     */
+    fun resize(newWidth: Int, newHeight: Int, exposed: Rect, panes: List<Rect>? = null) {
+        val oldPanes = ArrayList(this.panes)
+        width = newWidth
+        height = newHeight
+        this.panes.clear()
+        for (pane in panes ?: listOf(Rect(0, 0, newWidth, newHeight))) {
+            val bounded = Rect(pane)
+            if (bounded.intersect(0, 0, newWidth, newHeight)) {
+                this.panes.add(bounded)
+            }
+        }
+
+        exposed.setEmpty()
+        for (i in tiles.size() - 1 downTo 0) {
+            val tile = tiles.valueAt(i)
+            if (!fits(tile)) {
+                this.panes.getOrNull(tile.pane)?.let {
+                    tileRect.set(tile.left, tile.top, tile.left + tileSize, tile.top + tileSize)
+                    if (tileRect.intersect(it)) {
+                        exposed.union(tileRect)
+                    }
+                }
+                release(tile)
+                tiles.removeAt(i)
+            }
+        }
+        for (p in this.panes.indices) {
+            val pane = this.panes[p]
+            val old = oldPanes.getOrNull(p)
+            if (old == null || old.left != pane.left || old.top != pane.top) {
+                exposed.union(pane)
+                continue
+            }
+            if (pane.right > old.right) {
+                exposed.union(old.right, pane.top, pane.right, pane.bottom)
+            }
+            if (pane.bottom > old.bottom) {
+                exposed.union(pane.left, old.bottom, pane.right, pane.bottom)
+            }
+        }
+    }
+
+    /**
+     * Releases the tiles intersecting [region] and grows [region] to the tile grid, so the
+     * area can be rasterized again from scratch.
+     */
+    fun releaseTiles(region: Rect) {
+        dstRect.setEmpty()
+        for (p in panes.indices) {
+            val pane = panes[p]
+            if (!toTileRange(pane, region, tileRect)) {
+                continue
+            }
+            for (row in tileRect.top..tileRect.bottom) {
+                for (column in tileRect.left..tileRect.right) {
+                    val key = key(p, column, row)
+                    tiles.get(key)?.let {
+                        release(it)
+                        tiles.remove(key)
+                    }
+                }
+            }
+            dstRect.union(
+                pane.left + tileRect.left * tileSize,
+                pane.top + tileRect.top * tileSize,
+                min(pane.left + (tileRect.right + 1) * tileSize, pane.right),
+                min(pane.top + (tileRect.bottom + 1) * tileSize, pane.bottom)
+            )
+        }
+        region.set(dstRect)
+    }
+
+    /**
+     * Returns a canvas recording the drawing commands for the next [endRecording] call.
+     * Calling this again before [endRecording] returns the same canvas.
+     */
+    fun beginRecording(): Canvas {
+        return recordingCanvas ?: picture.beginRecording(max(width, 1), max(height, 1)).also {
+            recordingCanvas = it
+        }
+    }
+
+    /**
+     * Replays the recorded drawing into the tiles it touches.
+     *
+     * @param inkBounds bounds of the ink that was drawn, tiles are allocated as needed
+     * @param eraseBounds bounds of the ink that was erased, only applied to existing tiles
+     * @param clip optional region the replay is restricted to
+     */
+    fun endRecording(inkBounds: RectF, eraseBounds: RectF, clip: Rect? = null) {
+        if (recordingCanvas == null) {
+            return
+        }
+        picture.endRecording()
+        recordingCanvas = null
+
+        roundOut(inkBounds, inkRect)
+        roundOut(eraseBounds, eraseRect)
+        dstRect.set(inkRect)
+        dstRect.union(eraseRect)
+        if (clip != null && !dstRect.intersect(clip)) {
+            return
+        }
+
+        for (p in panes.indices) {
+            val pane = panes[p]
+            if (!toTileRange(pane, dstRect, tileRect)) {
+                continue
+            }
+            for (row in tileRect.top..tileRect.bottom) {
+                for (column in tileRect.left..tileRect.right) {
+                    val left = pane.left + column * tileSize
+                    val top = pane.top + row * tileSize
+                    val right = min(left + tileSize, pane.right)
+                    val bottom = min(top + tileSize, pane.bottom)
+                    val tile = when {
+                        inkRect.intersects(left, top, right, bottom) -> obtain(p, column, row)
+                        eraseRect.intersects(left, top, right, bottom) -> tiles.get(key(p, column, row))
+                        else -> null
+                    } ?: continue
+
+                    // the tile bitmap ends at the pane edges
+                    unshare(tile)
+                    tile.canvas.save()
+                    tile.canvas.translate(-left.toFloat(), -top.toFloat())
+                    if (clip != null) {
+                        tile.canvas.clipRect(clip)
+                    }
+                    tile.canvas.drawPicture(picture)
+                    tile.canvas.restore()
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the tiles intersecting [region] onto [canvas] at their view position.
+     */
+    fun blit(canvas: Canvas, region: Rect, paint: Paint? = null) {
+        for (p in panes.indices) {
+            val pane = panes[p]
+            if (!toTileRange(pane, region, tileRect)) {
+                continue
+            }
+            for (row in tileRect.top..tileRect.bottom) {
+                for (column in tileRect.left..tileRect.right) {
+                    val tile = tiles.get(key(p, column, row)) ?: continue
+                    dstRect.set(tile.left, tile.top, tile.left + tile.bitmap.width, tile.top + tile.bitmap.height)
+                    if (!dstRect.intersect(region)) {
+                        continue
+                    }
+                    srcRect.set(dstRect)
+                    srcRect.offset(-tile.left, -tile.top)
+                    canvas.drawBitmap(tile.bitmap, srcRect, dstRect, paint)
+                }
+            }
+        }
+    }
+
+    /**
+     * Composites every tile of this store over the matching tile of [target] and clears
+     * this store.
+     */
+    fun mergeInto(target: InkTileStore) {
+        for (i in 0 until tiles.size()) {
+            val tile = tiles.valueAt(i)
+            target.unshare(target.obtain(tile.pane, tile.column, tile.row)).canvas.drawBitmap(tile.bitmap, 0f, 0f, null)
+            release(tile)
+        }
+        tiles.clear()
+    }
+
+    /**
+     * Captures the allocated tiles without copying them. The snapshot shares the tile bitmaps,
+     * a tile is only copied when it is drawn into afterwards, so a snapshot costs a copy of the
+     * tiles that changed since instead of all of them.
+     */
+    fun snapshot(): Snapshot {
+        val count = tiles.size()
+        val panes = IntArray(count)
+        val columns = IntArray(count)
+        val rows = IntArray(count)
+        val bitmaps = Array(count) { i ->
+            val tile = tiles.valueAt(i)
+            panes[i] = tile.pane
+            columns[i] = tile.column
+            rows[i] = tile.row
+            tile.shared = true
+            tile.bitmap
+        }
+        return Snapshot(panes, columns, rows, bitmaps)
+    }
+
+    /**
+     * Replaces the tiles with the content of [snapshot], tiles outside of the current panes
+     * are skipped.
+     */
+    fun restore(snapshot: Snapshot) {
+        clear()
+        for (i in snapshot.bitmaps.indices) {
+            val pane = panes.getOrNull(snapshot.panes[i]) ?: continue
+            if (pane.left + snapshot.columns[i] * tileSize < pane.right &&
+                pane.top + snapshot.rows[i] * tileSize < pane.bottom
+            ) {
+                obtain(snapshot.panes[i], snapshot.columns[i], snapshot.rows[i])
+                    .canvas.drawBitmap(snapshot.bitmaps[i], 0f, 0f, null)
+            }
+        }
+    }
+
+    fun clear() {
+        for (i in 0 until tiles.size()) {
+            release(tiles.valueAt(i))
+        }
+        tiles.clear()
+    }
+
+    private fun obtain(pane: Int, column: Int, row: Int): Tile {
+        val key = key(pane, column, row)
+        tiles.get(key)?.let { return it }
+        val bounds = panes[pane]
+        val left = bounds.left + column * tileSize
+        val top = bounds.top + row * tileSize
+        val bitmap = obtainBitmap(min(tileSize, bounds.right - left), min(tileSize, bounds.bottom - top))
+        return Tile(pane, column, row, left, top, bitmap).also { tiles.put(key, it) }
+    }
+
+    private fun obtainBitmap(bitmapWidth: Int, bitmapHeight: Int): Bitmap {
+        return if (bitmapWidth == tileSize && bitmapHeight == tileSize && pool.isNotEmpty()) {
+            pool.removeAt(pool.size - 1).also { it.eraseColor(0) }
+        } else {
+            Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888)
+        }
+    }
+
+    /**
+     * Gives [tile] a bitmap of its own if a snapshot shares its current one.
+     */
+    private fun unshare(tile: Tile): Tile {
+        if (tile.shared) {
+            tile.bitmap = tile.bitmap.copy(Bitmap.Config.ARGB_8888, true)
+            tile.canvas.setBitmap(tile.bitmap)
+            tile.shared = false
+        }
+        return tile
+    }
+
+    private fun release(tile: Tile) {
+        // a bitmap held by a snapshot is left to it
+        if (tile.shared) {
+            return
+        }
+        // only whole tiles are pooled, the ones cut to a pane edge are rarely reused
+        if (pool.size < MAX_POOLED_TILES && tile.bitmap.width == tileSize && tile.bitmap.height == tileSize) {
+            pool.add(tile.bitmap)
+        } else {
+            tile.bitmap.recycle()
+        }
+    }
+
+    /**
+     * True if [tile] still is a tile of the current panes, at the same position and size.
+     */
+    private fun fits(tile: Tile): Boolean {
+        val pane = panes.getOrNull(tile.pane) ?: return false
+        return tile.left == pane.left + tile.column * tileSize &&
+            tile.top == pane.top + tile.row * tileSize &&
+            tile.bitmap.width == min(tileSize, pane.right - tile.left) &&
+            tile.bitmap.height == min(tileSize, pane.bottom - tile.top)
+    }
+
+    /**
+     * Computes the inclusive range of tile columns and rows of [pane] covering [area].
+     *
+     * @return false if the area doesn't touch the pane
+     */
+    private fun toTileRange(pane: Rect, area: Rect, out: Rect): Boolean {
+        val left = max(area.left, pane.left)
+        val top = max(area.top, pane.top)
+        val right = min(area.right, pane.right)
+        val bottom = min(area.bottom, pane.bottom)
+        if (right <= left || bottom <= top) {
+            return false
+        }
+        out.set(
+            (left - pane.left) / tileSize,
+            (top - pane.top) / tileSize,
+            (right - 1 - pane.left) / tileSize,
+            (bottom - 1 - pane.top) / tileSize
+        )
+        return true
+    }
+
+    private fun roundOut(bounds: RectF, out: Rect) {
+        if (bounds.isEmpty) {
+            out.setEmpty()
+        } else {
+            out.set(
+                floor(bounds.left - antiAliasPadding).toInt(),
+                floor(bounds.top - antiAliasPadding).toInt(),
+                ceil(bounds.right + antiAliasPadding).toInt(),
+                ceil(bounds.bottom + antiAliasPadding).toInt()
+            )
+        }
+    }
+
+    companion object {
+        const val DEFAULT_TILE_SIZE = 256
+        private const val BYTES_PER_PIXEL = 4
+        private const val MAX_POOLED_TILES = 8
+
+        private fun key(pane: Int, column: Int, row: Int): Long =
+            (pane.toLong() shl 56) or (column.toLong() shl 28) or row.toLong()
+    }
+}
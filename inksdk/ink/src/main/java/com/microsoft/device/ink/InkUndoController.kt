@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.RectF
+
+/**
+ * Records the changes made to the committed strokes and reverts or applies them again.
+ *
+ * The stroke model is changed through [host] first, then the committed raster is brought back
+ * in line with it: from the nearest checkpoint of [history] when the steps since only added
+ * strokes, otherwise by rasterizing the area the step touched again.
+ *
+ * All methods are called from the UI thread while no stroke is drawn.
+ */
+internal class InkUndoController(private val host: Host) {
+
+    /**
+     * Stroke model and committed raster of the view the changes apply to
+     */
+    interface Host {
+        val renderLock: Any
+
+        /**
+         * Committed brushes, in the order of the brush list
+         */
+        val brushes: List<InkView.Brush>
+
+        /**
+         * Replaces the brushes [removed] found at [position] with [inserted], which take [order]
+         * in the drawing order, or go on top when null
+         */
+        fun spliceBrushes(position: Int, removed: List<InkView.Brush>, inserted: List<InkView.Brush>, order: Long?)
+
+        fun computeBounds(brush: InkView.Brush, out: RectF)
+
+        /**
+         * Rasterizes the committed ink under [bounds] again from the stroke model, called with
+         * [renderLock] held
+         */
+        fun rasterizeArea(bounds: RectF)
+
+        /**
+         * Restores the committed raster to [snapshot], then draws [replay] on top of it, called
+         * with [renderLock] held
+         */
+        fun restoreCheckpoint(snapshot: InkTileStore.Snapshot, replay: List<InkView.Brush>)
+
+        /**
+         * Draws the newest committed [brush] on top of the committed raster, called with
+         * [renderLock] held
+         */
+        fun drawOnTop(brush: InkView.Brush)
+
+        fun presentFrame()
+    }
+
+    // the snapshots share their bitmaps with the tiles, they are freed once unreachable
+    val history = InkHistory<InkTileStore.Snapshot>({ it.bytes }, { })
+    private val eraseReplacements = ArrayList<InkHistory.Replacement>()
+    private val stepBounds = RectF()
+    private val brushBounds = RectF()
+
+    /**
+     * Records [brush] added at the end of the brush list as one step.
+     */
+    fun recordStroke(brush: InkView.Brush) {
+        history.push(InkHistory.Step(brush, emptyList()))
+    }
+
+    /**
+     * Records [pieces] replacing [original] at [position] and [order], as part of the step of
+     * the eraser stroke in progress.
+     */
+    fun recordReplacement(original: InkView.Brush, position: Int, order: Long, pieces: List<InkView.Brush>) {
+        eraseReplacements.add(InkHistory.Replacement(original, position, order, pieces))
+    }
+
+    /**
+     * Records the replacements made since the last call as one step.
+     *
+     * @return false if nothing was erased
+     */
+    fun recordErase(): Boolean {
+        if (eraseReplacements.isEmpty()) {
+            return false
+        }
+        history.push(InkHistory.Step(null, eraseReplacements.toList()))
+        eraseReplacements.clear()
+        return true
+    }
+
+    fun clear() {
+        history.clear()
+        eraseReplacements.clear()
+    }
+
+    /**
+     * Reverts the last step.
+     *
+     * @return false if there was nothing to undo
+     */
+    fun undo(): Boolean {
+        val step = history.undo() ?: return false
+        var applied = step.added?.let { spliceExisting(host.brushes.size - 1, listOf(it), emptyList()) } ?: true
+        for (replacement in step.replacements.asReversed()) {
+            if (!spliceExisting(replacement.position, replacement.pieces, listOf(replacement.original), replacement.order)) {
+                applied = false
+            }
+        }
+
+        synchronized(host.renderLock) {
+            // a step that didn't match the stroke model is rasterized from the model instead
+            val checkpoint = if (applied) history.checkpointBefore(history.position) else null
+            val replay = checkpoint?.let { history.steps(it.position, history.position) }
+            if (checkpoint != null && replay != null && replay.all { it.replacements.isEmpty() }) {
+                // back to the nearest checkpoint, then forward through the strokes added since
+                host.restoreCheckpoint(checkpoint.snapshot, replay.mapNotNull { it.added })
+            } else {
+                rasterizeStep(step)
+            }
+            host.presentFrame()
+        }
+        return true
+    }
+
+    /**
+     * Applies the last undone step again.
+     *
+     * @return false if there was nothing to redo
+     */
+    fun redo(): Boolean {
+        val step = history.redo() ?: return false
+        for (replacement in step.replacements) {
+            spliceExisting(replacement.position, listOf(replacement.original), replacement.pieces, replacement.order)
+        }
+        step.added?.let { host.spliceBrushes(host.brushes.size, emptyList(), listOf(it), null) }
+
+        synchronized(host.renderLock) {
+            if (step.replacements.isEmpty() && step.added != null) {
+                // the stroke is the newest one and is drawn on top
+                host.drawOnTop(step.added)
+            } else {
+                rasterizeStep(step)
+            }
+            host.presentFrame()
+        }
+        return true
+    }
+
+    /**
+     * Rasterizes the area touched by [step] again from the strokes.
+     */
+    private fun rasterizeStep(step: InkHistory.Step) {
+        stepBounds.setEmpty()
+        step.added?.let {
+            host.computeBounds(it, brushBounds)
+            stepBounds.union(brushBounds)
+        }
+        for (replacement in step.replacements) {
+            host.computeBounds(replacement.original, brushBounds)
+            stepBounds.union(brushBounds)
+        }
+        if (!stepBounds.isEmpty) {
+            host.rasterizeArea(stepBounds)
+        }
+    }
+
+    /**
+     * Replaces the brushes [removed] with [inserted] like [Host.spliceBrushes]. [position] is
+     * where [removed] were when the change was recorded, they are looked up if they moved since.
+     *
+     * @return false if [removed] are not in the stroke model anymore, nothing is changed then
+     */
+    private fun spliceExisting(position: Int, removed: List<InkView.Brush>, inserted: List<InkView.Brush>, order: Long? = null): Boolean {
+        val brushes = host.brushes
+        val found = when {
+            removed.isEmpty() -> position.coerceIn(0, brushes.size)
+            isBrushRunAt(position, removed) -> position
+            else -> brushes.indexOfFirst { it === removed[0] }.takeIf { isBrushRunAt(it, removed) } ?: -1
+        }
+        if (found < 0) {
+            return false
+        }
+        host.spliceBrushes(found, removed, inserted, order)
+        return true
+    }
+
+    private fun isBrushRunAt(position: Int, run: List<InkView.Brush>): Boolean {
+        val brushes = host.brushes
+        return position >= 0 && position + run.size <= brushes.size &&
+            run.indices.all { brushes[position + it] === run[it] }
+    }
+}
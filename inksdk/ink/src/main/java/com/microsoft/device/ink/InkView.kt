@@ -12,16 +12,45 @@ import android.graphics.Color
 import android.graphics.DashPathEffect
 import android.graphics.Paint
 import android.graphics.PorterDuff
-import android.graphics.PorterDuffXfermode
+import android.graphics.Rect
+import android.graphics.RectF
 import android.graphics.SurfaceTexture
+import android.os.Build
+import android.os.SystemClock
 import android.util.AttributeSet
 import android.util.TypedValue
+import android.view.Choreographer
 import android.view.Surface
 import android.view.TextureView
+import android.view.ViewGroup
+import androidx.window.layout.WindowLayoutInfo
+import com.microsoft.device.dualscreen.utils.wm.getFoldingFeature
+import com.microsoft.device.dualscreen.utils.wm.getScreenRectangles
+import java.io.OutputStream
+import java.nio.channels.ReadableByteChannel
+import java.nio.channels.WritableByteChannel
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.ceil
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
 
 // constants
 const val minPointsForValidStroke = 2
 const val defaultHoverStrokeWidth = 5f
+const val eraserRadius = 30f
+const val antiAliasPadding = 1f
+private const val LOAD_PROGRESS_INTERVAL_MILLIS = 16L
+
+// shared by all views, loads are rasterized one at a time
+private val defaultLoadExecutor: Executor by lazy {
+    Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "InkView-load").apply { isDaemon = true }
+    }
+}
 
 class InkView constructor(
     context: Context,
@@ -31,14 +60,92 @@ class InkView constructor(
 
     private var surface: Surface? = null
     private var inputManager: InputManager
-    private lateinit var canvasBitmap: Bitmap
-    private lateinit var drawCanvas: Canvas
     private val currentStrokePaint = Paint()
     private val strokeList = mutableListOf<InputManager.ExtendedStroke>()
-    private val overridePaint: Paint
-    private val clearPaint: Paint
     private val hoverPaint = Paint()
     private val hoverEraserPaint = Paint()
+    private val tipPaint = Paint()
+
+    // presentation state
+    private val dirtyRect = Rect()
+    private var fullFrameDirty = true
+
+    // hover cursor, updated at most once per frame
+    private val hoverCursor = HoverCursorDrawable()
+    private var hoverScheduled = false
+    private val hoverRunnable = Runnable {
+        hoverScheduled = false
+        hoverCursor.offsetX = left + translationX
+        hoverCursor.offsetY = top + translationY
+        (parent as? ViewGroup)?.let { hoverCursor.setBounds(0, 0, it.width, it.height) }
+        hoverCursor.invalidateSelf()
+    }
+
+    // strokes drawn on the UI thread are rasterized and presented once per frame
+    private val uiFrames = FrameScheduler(Choreographer.getInstance()) { redrawTexture() }
+
+    // tiled backing stores, the wet one holds the active stroke in RenderMode.WET_DRY; when
+    // spanned every store has one pane per screen, null when the view is on a single screen
+    private var dryTiles = InkTileStore()
+    private val wetTiles = InkTileStore()
+    private var screenPanes: List<Rect>? = null
+    private val exposedRect = Rect()
+    private val emptyBounds = RectF()
+
+    // committed strokes by padded bounding box and their display lists, guarded by renderLock:
+    // a stroke cancelled on the render thread repaints the committed ink from them, while the
+    // UI thread commits, erases and undoes. brushBounds is the scratch rect of the index.
+    private val brushBounds = RectF()
+    private val brushIndex = SpatialIndex<Brush>()
+    private val displayLists = StrokeDisplayLists()
+    private val queryResults = ArrayList<Brush>()
+
+    // background loading: loadTiles is shared with the load thread and guarded by loadLock,
+    // the brushes being loaded are owned by the load thread until they are published
+    private var loadTiles = InkTileStore()
+    private val loadLock = Any()
+    private val loadGeneration = AtomicInteger()
+    @Volatile
+    private var pendingLoad: List<Brush>? = null
+
+    // undo/redo, no checkpoint is taken until the handed off strokes are in the committed tiles
+    private val undoController = InkUndoController(UndoHost())
+    private val history = undoController.history
+
+    // vector eraser scratch state
+    private val eraseDamage = FloatArray(4)
+    private val erasedBounds = RectF()
+    private val erasedRect = Rect()
+    // scratch rect of discardStroke, which also runs on the render thread
+    private val activeBounds = RectF()
+
+    // stroke tip (the segment that can't be curve fitted yet plus the prediction),
+    // drawn on top of the presented frame only
+    private val tipRect = Rect()
+    private val presentedTipRect = Rect()
+
+    // rendering, the tiles, the surface and the presentation state are guarded by renderLock
+    private val renderLock = Any()
+    private val strokeRenderer = StrokeRenderer(resources.displayMetrics.density)
+    private val exporter = InkExporter(resources.displayMetrics.density)
+    // strokes being drawn, one per pointer, including the one drawn by the render thread
+    private val activeBrushes = ArrayList<Brush>(InputManager.MAX_POINTERS)
+
+    // completed strokes still in the wet tiles, merged once no stroke is active anymore
+    private val wetCommitted = ArrayList<Brush>()
+
+    // render thread, fed with the samples of the live stroke by the input manager
+    private var renderThreadRequested = false
+    private val renderThread = InkRenderThread(RenderHost())
+
+    // metrics, the frame and stroke statistics are guarded by renderLock
+    private val frameMetrics = FrameMetrics()
+    private val strokeMetrics = StrokeMetrics()
+    private var strokeMetricsOpen = false
+    private var frameSegments = 0
+    private val ingestedSamples = AtomicInteger()
+    @Volatile
+    private var latestSampleTime = 0L
 
     // attributes
     private var enablePressure = false
@@ -101,12 +208,307 @@ class InkView constructor(
         }
         set(value) {
             enablePressure = value
+            // the recorded strokes were drawn with the old setting
+            synchronized(renderLock) { displayLists.clear() }
         }
 
     var dynamicPaintHandler: DynamicPaintHandler? = null
 
+    /**
+     * Predictor used to draw the stroke ahead of the latest sample. The predicted segment is
+     * only drawn on the presented frame and replaced once the real samples arrive.
+     */
+    var motionPredictor: InputManager.MotionPredictor?
+        get() = inputManager.predictor
+        set(value) {
+            inputManager.predictor = value
+        }
+
+    /**
+     * Lets every pointer draw its own stroke at the same time, see
+     * [InputManager.multiPointerEnabled]
+     */
+    var multiPointerEnabled: Boolean
+        get() = inputManager.multiPointerEnabled
+        set(value) {
+            inputManager.multiPointerEnabled = value
+        }
+
+    /**
+     * Pointer types that never draw, see [InputManager.rejectedPointerTypes]
+     */
+    var rejectedPointerTypes: Set<InputManager.PointerType>
+        get() = inputManager.rejectedPointerTypes
+        set(value) {
+            inputManager.rejectedPointerTypes = value
+        }
+
+    /**
+     * Contact size above which a touch is rejected as a palm, in pixels, see
+     * [InputManager.palmTouchMajor]
+     */
+    var palmTouchMajor: Float
+        get() = inputManager.palmTouchMajor
+        set(value) {
+            inputManager.palmTouchMajor = value
+        }
+
+    /**
+     * Delivers every touch and stylus event as soon as it arrives instead of once per frame,
+     * see [InputManager.unbufferedDispatchEnabled]
+     */
+    var unbufferedDispatchEnabled: Boolean
+        get() = inputManager.unbufferedDispatchEnabled
+        set(value) {
+            inputManager.unbufferedDispatchEnabled = value
+        }
+
+    /**
+     * Executor rasterizing the ink passed to [loadInk] off the UI thread, a shared background
+     * thread is used when null
+     */
+    var loadExecutor: Executor? = null
+
+    /**
+     * When enabled, the committed strokes are also recorded as display lists, one per area of
+     * the view, which are replayed when ink has to be drawn again after a resize, a change of
+     * [hingeBounds], an undo or an erase, instead of rebuilding the strokes from their samples.
+     * This trades the memory of the recorded drawing for less work on layout changes. Enabled
+     * by default from Android 10.
+     */
+    var displayListsEnabled = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+        set(value) {
+            field = value
+            if (!value) {
+                synchronized(renderLock) { displayLists.clear() }
+            }
+        }
+
+    /**
+     * Maximum number of display lists kept when [displayListsEnabled], each one covering a
+     * 512 by 512 pixel area. The least recently drawn ones are dropped first.
+     */
+    var maxDisplayLists: Int
+        get() = displayLists.maxBuckets
+        set(value) {
+            synchronized(renderLock) { displayLists.maxBuckets = value }
+        }
+
+    /**
+     * Executor rendering the exports of [exportBitmap] and [exportImage], a shared background
+     * thread is used when null
+     */
+    var exportExecutor: Executor? = null
+
+    /**
+     * True while ink passed to [loadInk] is rasterized in the background
+     */
+    val isLoadingInk: Boolean
+        get() = pendingLoad != null
+
+    /**
+     * Simplifier applied to every completed stroke before it is committed, the simplified
+     * stroke is the one stored, saved and replayed. The live stroke is drawn from all samples.
+     */
+    var strokeSimplifier: StrokeSimplifier? = null
+
+    /**
+     * Keeps the recorded samples of simplified strokes in [Brush.rawStroke]
+     */
+    var keepRawStrokes = false
+
+    val canUndo: Boolean
+        get() = history.canUndo
+
+    val canRedo: Boolean
+        get() = history.canRedo
+
+    /**
+     * Maximum number of changes that can be undone
+     */
+    var maxUndoSteps: Int
+        get() = history.maxSteps
+        set(value) {
+            history.maxSteps = value
+        }
+
+    /**
+     * Number of changes between two raster checkpoints. Undoing restores the nearest checkpoint
+     * and replays at most this many strokes.
+     */
+    var undoCheckpointInterval: Int
+        get() = history.checkpointInterval
+        set(value) {
+            history.checkpointInterval = value
+        }
+
+    /**
+     * Memory the raster checkpoints may hold, in bytes. The oldest checkpoints are released
+     * first, undoing past them re-rasterizes the affected area from the strokes instead.
+     */
+    var undoMemoryBudget: Long
+        get() = history.memoryBudget
+        set(value) {
+            history.memoryBudget = value
+        }
+
+    /**
+     * How eraser samples affect the committed ink
+     */
+    @Volatile
+    var eraserMode = EraserMode.PIXEL
+
+    @Volatile
+    var renderMode = RenderMode.DIRECT
+        set(value) {
+            synchronized(renderLock) {
+                commitWetInk()
+                field = value
+            }
+        }
+
+    /**
+     * When enabled, strokes are rasterized and presented on a dedicated render thread that
+     * receives the samples through a [SampleRingBuffer], so stalls of the UI thread don't delay
+     * the ink. Vector erasing, hover, loading and the stroke model stay on the UI thread.
+     * Change it between strokes.
+     */
+    var renderThreadEnabled: Boolean
+        get() = renderThreadRequested
+        set(value) {
+            renderThreadRequested = value
+            if (value && isAttachedToWindow) {
+                startRenderThread()
+            } else if (!value) {
+                stopRenderThread()
+            }
+        }
+
+    /**
+     * Bounds of the hinge between the screens the view spans, in view coordinates, or null when
+     * the view is on a single screen. Usually set through [setWindowLayoutInfo].
+     *
+     * While set the view is spanned: each screen has its own backing store, nothing is allocated
+     * for the hinge, and strokes crossing it are split into one stroke per screen. Change it
+     * between strokes.
+     */
+    var hingeBounds: Rect? = null
+        set(value) {
+            if (value == field) {
+                return
+            }
+            field = value?.let { Rect(it) }
+            inputManager.hingeBounds = value?.let { RectF(it) }
+            resizeBackingStores(width, height)
+        }
+
+    val isSpanned: Boolean
+        get() = hingeBounds != null
+
+    /**
+     * Memory held by the tiles backing the committed and the wet ink, in bytes
+     */
+    val backingStoreBytes: Long
+        get() = dryTiles.allocatedBytes + wetTiles.allocatedBytes
+
+    /**
+     * Opt-in listener receiving frame and stroke statistics
+     */
+    @Volatile
+    var metricsListener: MetricsListener? = null
+
+    // frame counters
+    /**
+     * Number of pixels copied to the surface by the last presented frame
+     */
+    var lastFramePixelsBlitted = 0L
+        private set
+
+    /**
+     * Number of pixels copied to the surface since the counters were last reset
+     */
+    var totalPixelsBlitted = 0L
+        private set
+
+    /**
+     * Number of frames presented since the counters were last reset
+     */
+    var framesPresented = 0L
+        private set
+
     interface DynamicPaintHandler {
         fun generatePaintFromPenInfo(penInfo: InputManager.PenInfo): Paint
+
+        /**
+         * Declares the handler cacheable: samples with the same key are drawn with the same
+         * paint, generated once and reused. The key should hold every input the paint depends
+         * on, quantized, for example a [pressureBucket] and a color. The paints of a cacheable
+         * handler must not be changed once returned.
+         *
+         * @return the key of sample [index] of [stroke], or [NO_CACHE_KEY] to generate a new
+         * paint for every sample
+         */
+        fun paintCacheKey(stroke: InputManager.ExtendedStroke, index: Int): Long = NO_CACHE_KEY
+
+        companion object {
+            const val NO_CACHE_KEY = Long.MIN_VALUE
+            const val PRESSURE_BUCKETS = 16
+
+            /**
+             * Quantizes [pressure] into one of [PRESSURE_BUCKETS] levels
+             */
+            fun pressureBucket(pressure: Float): Int =
+                (pressure.coerceIn(0f, 1f) * (PRESSURE_BUCKETS - 1)).roundToInt()
+
+            /**
+             * Pressure of the level returned by [pressureBucket]
+             */
+            fun bucketPressure(bucket: Int): Float = bucket.toFloat() / (PRESSURE_BUCKETS - 1)
+        }
+    }
+
+    /**
+     * Receives the rendering statistics of the view. The callbacks are made on the thread that
+     * presented the frame while rendering is locked, they should return quickly.
+     */
+    interface MetricsListener {
+        /**
+         * Called for every frame presented to the surface, including the frames the surface
+         * rejected
+         */
+        fun onFrame(metrics: FrameMetrics) {}
+
+        /**
+         * Called once the last active stroke completed, with the frames presented since the
+         * first one started
+         */
+        fun onStroke(metrics: StrokeMetrics) {}
+    }
+
+    enum class RenderMode {
+        /**
+         * The active stroke is rasterized straight into the committed tiles
+         */
+        DIRECT,
+
+        /**
+         * The active stroke is rasterized into a separate wet layer that is composited on top
+         * of the committed (dry) tiles and merged into them once, when the stroke completes
+         */
+        WET_DRY
+    }
+
+    enum class EraserMode {
+        /**
+         * The eraser clears the pixels under it, the erased strokes are kept in [brushList]
+         */
+        PIXEL,
+
+        /**
+         * The eraser removes the samples under it from the committed strokes, splitting or
+         * deleting them in [brushList]. The eraser stroke itself is not kept.
+         */
+        VECTOR
     }
 
     data class Brush(
@@ -114,8 +516,13 @@ class InkView constructor(
         val strokeWidth: Float,
         val strokeWidthMax: Float,
         val paintHandler: DynamicPaintHandler?,
-        val stroke: InputManager.ExtendedStroke
-    )
+        val stroke: InputManager.ExtendedStroke,
+        // samples as recorded, when the stroke was simplified and keepRawStrokes is set
+        val rawStroke: InputManager.ExtendedStroke? = null
+    ) {
+        // tessellated geometry of the complete stroke, cached on first replay
+        internal var mesh: StrokeMesh? = null
+    }
 
     val brushList: MutableList<Brush> = mutableListOf()
 
@@ -135,12 +542,6 @@ class InkView constructor(
         isOpaque = false // make the texture view transparent!
         this.surfaceTextureListener = this
 
-        // setup blend modes
-        overridePaint = Paint()
-        overridePaint.xfermode = PorterDuffXfermode(PorterDuff.Mode.SRC)
-        clearPaint = Paint()
-        clearPaint.xfermode = PorterDuffXfermode(PorterDuff.Mode.CLEAR)
-
         inputManager = createInputManager()
 
         initCurrentStrokePaint()
@@ -151,52 +552,90 @@ class InkView constructor(
         return InputManager(
             this,
             object : InputManager.PenInputHandler {
-                override fun strokeStarted(
-                    penInfo: InputManager.PenInfo,
-                    stroke: InputManager.ExtendedStroke
-                ) {
-                    redrawTexture()
+                override fun strokeStarted(stroke: InputManager.ExtendedStroke) {
+                    recordSamples(stroke, stroke.size)
+                    val brush = Brush(color, strokeWidth, strokeWidthMax, dynamicPaintHandler, stroke)
+                    if (inputManager.isBuffered(stroke) && !isVectorEraser(brush) && renderThread.handOff(brush)) {
+                        // the render thread draws this stroke from the sample buffer
+                        return
+                    }
+                    synchronized(renderLock) {
+                        activeBrushes.add(brush)
+                        strokeMetricsOpen = true
+                    }
+                    uiFrames.request()
                 }
 
                 override fun strokeUpdated(
-                    penInfo: InputManager.PenInfo,
-                    stroke: InputManager.ExtendedStroke
+                    stroke: InputManager.ExtendedStroke,
+                    fromIndex: Int,
+                    toIndex: Int
                 ) {
-                    redrawTexture()
+                    recordSamples(stroke, toIndex - fromIndex)
+                    // samples of strokes drawn on the UI thread are drained as well
+                    renderThread.scheduleDrain()
+                    if (!renderThread.isHandedOff(stroke)) {
+                        uiFrames.request()
+                    }
                 }
 
-                override fun strokeCompleted(
-                    penInfo: InputManager.PenInfo,
-                    stroke: InputManager.ExtendedStroke
-                ) {
-                    redrawTexture()
-                    strokeList += stroke
-                    brushList.add(
-                        Brush(color, strokeWidth, strokeWidthMax, dynamicPaintHandler, stroke)
-                    )
+                override fun strokeCompleted(stroke: InputManager.ExtendedStroke) {
+                    renderThread.scheduleDrain()
+                    // the input manager reuses the stroke, the committed brush keeps a copy
+                    val handedOff = renderThread.takeHandedOff(stroke)
+                    if (handedOff != null) {
+                        commitBrush(handedOff.copy(stroke = stroke.copy()))
+                        return
+                    }
+                    val brush = synchronized(renderLock) {
+                        val active = findActiveBrush(stroke)
+                            ?: Brush(color, strokeWidth, strokeWidthMax, dynamicPaintHandler, stroke)
+                        drawStroke(active, final = true)
+                        activeBrushes.remove(active)
+                        if (isVectorEraser(active)) {
+                            active
+                        } else {
+                            active.copy(stroke = stroke.copy()).also { finishWetStroke(it) }
+                        }
+                    }
+                    uiFrames.request()
+                    if (!isVectorEraser(brush)) {
+                        commitBrush(brush)
+                    } else {
+                        pushEraseStep()
+                    }
+                }
+
+                override fun strokeCancelled(stroke: InputManager.ExtendedStroke) {
+                    renderThread.scheduleDrain()
+                    if (renderThread.takeHandedOff(stroke) != null) {
+                        // the render thread discards it
+                        return
+                    }
+                    val brush = synchronized(renderLock) {
+                        val brush = findActiveBrush(stroke) ?: return
+                        activeBrushes.remove(brush)
+                        discardStroke(brush)
+                        brush
+                    }
+                    uiFrames.request()
+                    if (isVectorEraser(brush)) {
+                        // the strokes erased so far stay erased
+                        pushEraseStep()
+                    }
                 }
             },
             object : InputManager.PenHoverHandler {
-                override fun hoverStarted(penInfo: InputManager.PenInfo) {
-                    drawHover(
-                        penInfo.x,
-                        penInfo.y,
-                        (minStrokeWidth + maxStrokeWidth) / 2,
-                        penInfo.pointerType
-                    )
+                override fun hoverStarted(x: Float, y: Float, pointerType: InputManager.PointerType) {
+                    drawHover(x, y, (minStrokeWidth + maxStrokeWidth) / 2, pointerType)
                 }
 
-                override fun hoverMoved(penInfo: InputManager.PenInfo) {
-                    drawHover(
-                        penInfo.x,
-                        penInfo.y,
-                        (minStrokeWidth + maxStrokeWidth) / 2,
-                        penInfo.pointerType
-                    )
+                override fun hoverMoved(x: Float, y: Float, pointerType: InputManager.PointerType) {
+                    drawHover(x, y, (minStrokeWidth + maxStrokeWidth) / 2, pointerType)
                 }
 
-                override fun hoverEnded(penInfo: InputManager.PenInfo) {
-                    redrawTexture()
+                override fun hoverEnded(x: Float, y: Float, pointerType: InputManager.PointerType) {
+                    hideHover()
                 }
             }
         )
@@ -245,176 +684,1077 @@ class InkView constructor(
     }
 
     fun clearInk() {
-        drawCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
+        cancelLoad()
         strokeList.clear()
         brushList.clear()
-
+        clearBrushIndex()
+        undoController.clear()
         inputManager.currentStroke = InputManager.ExtendedStroke()
-        redrawTexture()
+
+        synchronized(renderLock) {
+            dryTiles.clear()
+            clearWetInk()
+            activeBrushes.clear()
+            renderThread.forgetBrush()
+            fullFrameDirty = true
+            redrawTexture()
+        }
+        maybeCheckpoint()
     }
 
+    /**
+     * Copies the ink, including the strokes in progress, into a new view sized bitmap on the
+     * calling thread. See [exportBitmap] for scaled and pooled exports off the UI thread.
+     */
     fun saveBitmap(): Bitmap {
         val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
         val saveCanvas = Canvas(bitmap)
-        drawStroke()
-        saveCanvas.drawBitmap(canvasBitmap, 0f, 0f, overridePaint)
+        val bounds = Rect(0, 0, width, height)
+        synchronized(renderLock) {
+            drawActiveStrokes()
+            if (pendingLoad != null) {
+                synchronized(loadLock) { loadTiles.blit(saveCanvas, bounds) }
+            }
+            dryTiles.blit(saveCanvas, bounds)
+            wetTiles.blit(saveCanvas, bounds)
+        }
         return bitmap
     }
 
+    /**
+     * Renders the committed ink in [ExportOptions.region] on [exportExecutor] and passes the
+     * bitmap to [callback] on the UI thread. Unlike [saveBitmap] the strokes in progress are not
+     * included. The bitmap is pooled: give it back with [releaseExportedBitmap] once done with it,
+     * so the next export of the same size reuses it.
+     *
+     * [callback] receives null if the region is empty, for example before the view is laid out,
+     * or if the bitmap could not be rendered.
+     */
+    fun exportBitmap(options: ExportOptions = ExportOptions(), callback: (Bitmap?) -> Unit) {
+        val region = options.region ?: Rect(0, 0, width, height)
+        exporter.exportBitmap(exportedBrushes(region), region, options, enablePressure, exportExecutor, { post(it) }, callback)
+    }
+
+    /**
+     * Renders the committed ink like [exportBitmap] and encodes it into [out] on
+     * [exportExecutor], leaving the stream open. [callback] is then called on the UI thread,
+     * with false if the region is empty or the image could not be rendered, encoded or written.
+     */
+    fun exportImage(
+        out: OutputStream,
+        format: Bitmap.CompressFormat = Bitmap.CompressFormat.PNG,
+        quality: Int = 100,
+        options: ExportOptions = ExportOptions(),
+        callback: ((Boolean) -> Unit)? = null
+    ) {
+        val region = options.region ?: Rect(0, 0, width, height)
+        exporter.exportImage(
+            exportedBrushes(region),
+            region,
+            options,
+            enablePressure,
+            out,
+            format,
+            quality,
+            exportExecutor,
+            { post(it) },
+            callback
+        )
+    }
+
+    /**
+     * Gives a bitmap returned by [exportBitmap] back to the export pool.
+     */
+    fun releaseExportedBitmap(bitmap: Bitmap) {
+        exporter.pool.release(bitmap)
+    }
+
+    /**
+     * Copies of the committed brushes that may touch [region], in drawing order, for rendering
+     * on another thread.
+     */
+    private fun exportedBrushes(region: Rect): List<Brush> {
+        val regionBounds = RectF(region)
+        val found = if (pendingLoad == null) {
+            findBrushes(regionBounds)
+        } else {
+            val bounds = RectF()
+            committedBrushes().filter {
+                strokeRenderer.computeBounds(it, bounds)
+                RectF.intersects(bounds, regionBounds)
+            }
+        }
+        return found.map { it.copy(stroke = it.stroke.copy(), rawStroke = null) }
+    }
+
     fun saveInk(): List<Brush> {
-        // create a copy of the list to avoid references in both brush list and load ink list
-        return brushList.map { it.copy() }
+        // create a copy of the list to avoid references in both brush list and load ink list,
+        // the stroke samples are copied as well so the saved ink doesn't share columns with the view
+        return committedBrushes().map { it.copy(stroke = it.stroke.copy(), rawStroke = it.rawStroke?.copy()) }
+    }
+
+    /**
+     * Writes the committed ink to [channel] in the [InkFormat] binary format, leaving the
+     * channel open.
+     */
+    fun saveInk(channel: WritableByteChannel) {
+        InkFormat.write(committedBrushes(), channel)
+    }
+
+    /**
+     * Replaces the ink with the [InkFormat] document read from [channel], leaving the channel
+     * open. The document is decoded on the calling thread, decode it with [InkFormat.read] on a
+     * background thread to keep large documents off the UI thread.
+     */
+    fun loadInk(channel: ReadableByteChannel) {
+        loadInk(InkFormat.read(channel))
+    }
+
+    /**
+     * Finds the committed strokes that may touch [bounds], for hit testing or culling. The
+     * strokes are tested by their bounding box padded by the maximum stroke width, and returned
+     * in drawing order.
+     *
+     * Strokes added to or removed from [brushList] directly are not tracked.
+     */
+    fun findBrushes(bounds: RectF): List<Brush> {
+        val result = ArrayList<Brush>()
+        synchronized(renderLock) { brushIndex.query(bounds.left, bounds.top, bounds.right, bounds.bottom, result) }
+        return result
     }
 
+    /**
+     * Finds the committed strokes that may touch the point ([x], [y]), in drawing order.
+     */
+    fun findBrushes(x: Float, y: Float): List<Brush> {
+        val result = ArrayList<Brush>()
+        synchronized(renderLock) { brushIndex.query(x, y, result) }
+        return result
+    }
+
+    /**
+     * Replaces the ink with [brushes]. The brushes are rasterized on [loadExecutor] and shown
+     * progressively, they are added to [brushList] once they are all rasterized. Loading other
+     * ink or clearing the view cancels a load in progress. The view keeps copies of the brushes,
+     * the caller's brushes are not changed.
+     */
     fun loadInk(brushes: List<Brush>) {
-        // reset canvas
-        drawCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
         strokeList.clear()
         inputManager.currentStroke = InputManager.ExtendedStroke()
         brushList.clear()
+        clearBrushIndex()
+        undoController.clear()
+
+        synchronized(renderLock) {
+            // reset canvas
+            dryTiles.clear()
+            clearWetInk()
+            activeBrushes.clear()
+            renderThread.forgetBrush()
+            // the load thread only reads the copies, which the caller can't reach
+            startLoad(brushes.map { it.copy(stroke = it.stroke.copy(), rawStroke = it.rawStroke?.copy()) })
+            fullFrameDirty = true
+            redrawTexture()
+        }
+    }
+
+    /**
+     * Starts rasterizing [brushes] into [loadTiles] in the background, cancelling any load in
+     * progress.
+     */
+    private fun startLoad(brushes: List<Brush>) {
+        val generation = loadGeneration.incrementAndGet()
+        pendingLoad = brushes
+        val store = loadTiles
+        synchronized(loadLock) {
+            store.clear()
+            store.resize(width, height, exposedRect, screenPanes)
+        }
+        val renderer = StrokeRenderer(resources.displayMetrics.density)
+        val pressure = enablePressure
+        (loadExecutor ?: defaultLoadExecutor).execute {
+            rasterizeInBackground(brushes, store, renderer, pressure, generation)
+        }
+    }
+
+    /**
+     * Rasterizes [brushes] into [store] on the load thread, presenting the progress about
+     * once per frame. Stops as soon as [generation] is not the current load anymore.
+     */
+    private fun rasterizeInBackground(
+        brushes: List<Brush>,
+        store: InkTileStore,
+        renderer: StrokeRenderer,
+        pressure: Boolean,
+        generation: Int
+    ) {
+        trace("InkView.loadInk") {
+            var lastProgress = SystemClock.uptimeMillis()
+            for (brush in brushes) {
+                synchronized(loadLock) {
+                    if (generation != loadGeneration.get()) {
+                        return
+                    }
+                    // drawn without touching the render state or the mesh cache of the brush,
+                    // which the UI thread reads through pendingLoad
+                    val canvas = store.beginRecording()
+                    renderer.renderComplete(canvas, canvas, brush, pressure)
+                    store.endRecording(renderer.strokeBounds, renderer.eraserBounds)
+                }
+
+                val now = SystemClock.uptimeMillis()
+                if (now - lastProgress >= LOAD_PROGRESS_INTERVAL_MILLIS) {
+                    lastProgress = now
+                    post {
+                        if (generation == loadGeneration.get()) {
+                            synchronized(renderLock) {
+                                fullFrameDirty = true
+                                presentFrame()
+                            }
+                        }
+                    }
+                }
+            }
+            post { finishLoad(generation) }
+        }
+    }
+
+    /**
+     * Publishes the loaded brushes once they are all rasterized. Strokes drawn while the ink
+     * was loading stay on top of it.
+     */
+    private fun finishLoad(generation: Int) {
+        if (generation != loadGeneration.get()) {
+            return
+        }
+        val loaded = pendingLoad ?: return
+        pendingLoad = null
 
-        // draw each of the brush strokes
-        for (brush in brushes) {
-            brush.stroke.lastPointReferenced = 0
+        val drawnDuringLoad = brushList.toList()
+        brushList.clear()
+        strokeList.clear()
+        clearBrushIndex()
+        for (brush in loaded + drawnDuringLoad) {
             strokeList.add(brush.stroke)
             brushList.add(brush)
+            indexBrush(brush)
+        }
 
-            color = brush.color
-            strokeWidth = brush.strokeWidth
-            strokeWidthMax = brush.strokeWidthMax
-            dynamicPaintHandler = brush.paintHandler
-            inputManager.currentStroke = brush.stroke
+        synchronized(renderLock) {
+            synchronized(loadLock) {
+                dryTiles.mergeInto(loadTiles)
+                val tiles = dryTiles
+                dryTiles = loadTiles
+                loadTiles = tiles
+            }
 
-            drawStroke()
+            // pixel erasing done while loading only applied to the new strokes
+            if (drawnDuringLoad.any { hasEraserSamples(it.stroke) }) {
+                erasedRect.set(0, 0, width, height)
+                rasterizeRegion(erasedRect)
+            }
+            fullFrameDirty = true
+            presentFrame()
         }
-        redrawTexture()
+        // the committed tiles changed under the checkpoints
+        history.dropCheckpoints()
+        maybeCheckpoint()
     }
 
-    private fun updateStrokeWidth(pressure: Float) {
-        currentStrokePaint.strokeWidth = TypedValue.applyDimension(
-            TypedValue.COMPLEX_UNIT_DIP,
-            minStrokeWidth + ((maxStrokeWidth - minStrokeWidth) * pressure),
-            resources.displayMetrics
-        )
+    private fun cancelLoad() {
+        loadGeneration.incrementAndGet()
+        pendingLoad = null
+        synchronized(loadLock) { loadTiles.clear() }
+    }
+
+    private fun committedBrushes(): List<Brush> {
+        return pendingLoad?.let { it + brushList } ?: brushList
+    }
+
+    private fun hasEraserSamples(stroke: InputManager.ExtendedStroke): Boolean {
+        return (0 until stroke.size).any { stroke.getPointerType(it) == InputManager.PointerType.PEN_ERASER }
     }
 
     override fun onSizeChanged(w: Int, h: Int, oldw: Int, oldh: Int) {
         super.onSizeChanged(w, h, oldw, oldh)
-        canvasBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        drawCanvas = Canvas(canvasBitmap)
-        redrawTexture()
+        resizeBackingStores(w, h)
+    }
+
+    /**
+     * Sets [hingeBounds] from the separating folding feature of [windowLayoutInfo] when it
+     * crosses the view. Call it with every window layout info reported by `WindowInfoTracker`,
+     * and again when the view moves within the window.
+     */
+    fun setWindowLayoutInfo(windowLayoutInfo: WindowLayoutInfo?) {
+        val feature = windowLayoutInfo.getFoldingFeature()
+        if (feature == null || !feature.isSeparating) {
+            hingeBounds = null
+            return
+        }
+        // the feature bounds are in window coordinates
+        val location = IntArray(2)
+        getLocationInWindow(location)
+        val bounds = Rect(feature.bounds)
+        bounds.offset(-location[0], -location[1])
+        hingeBounds = if (bounds.intersect(0, 0, width, height)) bounds else null
     }
 
+    /**
+     * Fits the backing stores to a [w] by [h] view, with one pane per screen when spanned.
+     */
+    private fun resizeBackingStores(w: Int, h: Int) {
+        screenPanes = getScreenRectangles(hingeBounds, Rect(0, 0, w, h))
+        synchronized(renderLock) {
+            wetTiles.resize(w, h, exposedRect, screenPanes)
+            dryTiles.resize(w, h, exposedRect, screenPanes)
+            // ink that was clipped by the old bounds is restored from the strokes
+            rasterizeRegion(exposedRect)
+            // a load in progress starts over at the new size
+            pendingLoad?.let { startLoad(it) }
+            fullFrameDirty = true
+            redrawTexture()
+        }
+        history.dropCheckpoints()
+        maybeCheckpoint()
+    }
+
+    /**
+     * Moves the hover cursor to ([cx], [cy]). The cursor is drawn in the overlay of the parent
+     * view, above the ink, and updated at most once per frame however often this is called.
+     * Call from the UI thread.
+     */
     fun drawHover(
         cx: Float,
         cy: Float,
         radius: Float,
         pointerType: InputManager.PointerType = InputManager.PointerType.UNKNOWN
     ) {
+        val paint = if (pointerType == InputManager.PointerType.PEN_ERASER) {
+            hoverEraserPaint
+        } else {
+            hoverPaint
+        }
+        hoverCursor.moveTo(cx, cy, radius, paint)
+        scheduleHover()
+    }
 
-        val canvas: Canvas = surface?.lockHardwareCanvas() ?: return
-        try {
-            // Copy image to the canvas
-            canvas.drawBitmap(canvasBitmap, 0f, 0f, overridePaint)
-            if (pointerType == InputManager.PointerType.PEN_ERASER) {
-                canvas.drawCircle(cx, cy, radius, hoverEraserPaint)
-            } else {
-                canvas.drawCircle(cx, cy, radius, hoverPaint)
-            }
-        } finally {
-            // Publish the frame.  If we overrun the consumer, frames will be dropped,
-            // so on a sufficiently fast device the animation will run at faster than
-            // the display refresh rate.
-            //
-            // If the SurfaceTexture has been destroyed, this will throw an exception.
-            try {
-                surface?.unlockCanvasAndPost(canvas)
-            } catch (iae: IllegalArgumentException) {
-                return
-            }
+    /**
+     * Removes the hover cursor.
+     */
+    fun hideHover() {
+        hoverCursor.hide()
+        scheduleHover()
+    }
+
+    private fun scheduleHover() {
+        if (!hoverScheduled) {
+            hoverScheduled = true
+            postOnAnimation(hoverRunnable)
         }
     }
 
     fun redrawTexture() {
-        drawStroke()
-        val canvas: Canvas = surface?.lockHardwareCanvas() ?: return
-        try {
-            // Copy image to the canvas
-            canvas.drawBitmap(canvasBitmap, 0f, 0f, overridePaint)
-        } finally {
-            // Publish the frame.  If we overrun the consumer, frames will be dropped,
-            // so on a sufficiently fast device the animation will run at faster than
-            // the display refresh rate.
-            //
-            // If the SurfaceTexture has been destroyed, this will throw an exception.
-            try {
-                surface?.unlockCanvasAndPost(canvas)
-            } catch (iae: IllegalArgumentException) {
+        synchronized(renderLock) {
+            drawActiveStrokes()
+            presentFrame()
+        }
+    }
+
+    /**
+     * Copies the dirty region of the ink tiles to the surface. Only the bounds of the segments
+     * rasterized since the last frame and of the stroke tips are locked and blitted.
+     */
+    private fun presentFrame() {
+        trace("InkView.presentFrame") {
+            if (surface == null) {
+                return
+            }
+
+            if (fullFrameDirty) {
+                dirtyRect.set(0, 0, width, height)
+            }
+            // erase the previously presented stroke tip
+            dirtyRect.union(presentedTipRect)
+            presentedTipRect.setEmpty()
+            val hasTip = computeTipBounds()
+            if (hasTip) {
+                dirtyRect.union(tipRect)
+            }
+            if (!dirtyRect.intersect(0, 0, width, height)) {
+                dirtyRect.setEmpty()
                 return
             }
+
+            // full frames are drawn with the hardware canvas, partial updates with a software
+            // canvas restricted to the dirty region
+            val fullFrame = dirtyRect.width() == width && dirtyRect.height() == height
+            val canvas: Canvas = (if (fullFrame) surface?.lockHardwareCanvas() else surface?.lockCanvas(dirtyRect))
+                ?: return
+            var posted = false
+            try {
+                // Copy the dirty region of the tiles to the canvas, the surface may have grown it
+                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
+                if (pendingLoad != null) {
+                    synchronized(loadLock) { loadTiles.blit(canvas, dirtyRect) }
+                }
+                dryTiles.blit(canvas, dirtyRect)
+                wetTiles.blit(canvas, dirtyRect)
+                if (hasTip) {
+                    drawTip(canvas)
+                    presentedTipRect.set(tipRect)
+                }
+                lastFramePixelsBlitted = dirtyRect.width().toLong() * dirtyRect.height()
+                totalPixelsBlitted += lastFramePixelsBlitted
+                framesPresented++
+                posted = true
+            } finally {
+                dirtyRect.setEmpty()
+                fullFrameDirty = false
+                // Publish the frame.  If we overrun the consumer, frames will be dropped,
+                // so on a sufficiently fast device the animation will run at faster than
+                // the display refresh rate.
+                //
+                // If the SurfaceTexture has been destroyed, this will throw an exception.
+                try {
+                    surface?.unlockCanvasAndPost(canvas)
+                } catch (iae: IllegalArgumentException) {
+                    fullFrameDirty = true
+                    posted = false
+                }
+            }
+            reportFrameMetrics(posted)
         }
     }
 
-    private fun drawStroke() {
+    /**
+     * Computes the bounds of the tips of the active strokes into [tipRect]. The tip runs from
+     * the end of the fitted curve through the last sample, which can't be fitted until the next
+     * one arrives, and the predicted samples.
+     *
+     * @return false if there is no tip to draw
+     */
+    private fun computeTipBounds(): Boolean {
+        tipRect.setEmpty()
+        for (b in activeBrushes.indices) {
+            val brush = activeBrushes[b]
+            if (!hasTip(brush)) {
+                continue
+            }
+            val stroke = brush.stroke
+            val prediction = predictionOf(brush)
+            val last = stroke.size - 1
 
-        val stroke = inputManager.currentStroke
-        val points = stroke.getPoints()
+            var left = StrokeRenderer.curveStartX(stroke, stroke.lastPointReferenced)
+            var top = StrokeRenderer.curveStartY(stroke, stroke.lastPointReferenced)
+            var right = left
+            var bottom = top
+            left = min(left, stroke.getX(last))
+            top = min(top, stroke.getY(last))
+            right = max(right, stroke.getX(last))
+            bottom = max(bottom, stroke.getY(last))
+            for (i in 0 until prediction.size) {
+                left = min(left, prediction.getX(i))
+                top = min(top, prediction.getY(i))
+                right = max(right, prediction.getX(i))
+                bottom = max(bottom, prediction.getY(i))
+            }
 
-        if (strokeList.isEmpty() && points.isEmpty()) {
-            return
+            updateTipPaint(brush)
+            val pad = tipPaint.strokeWidth / 2 + antiAliasPadding
+            tipRect.union(
+                floor(left - pad).toInt(),
+                floor(top - pad).toInt(),
+                ceil(right + pad).toInt(),
+                ceil(bottom + pad).toInt()
+            )
+        }
+        return !tipRect.isEmpty
+    }
+
+    private fun hasTip(brush: Brush): Boolean {
+        val stroke = brush.stroke
+        val last = stroke.size - 1
+        return last >= 1 && stroke.getPointerType(last) != InputManager.PointerType.PEN_ERASER
+    }
+
+    private fun updateTipPaint(brush: Brush) {
+        val stroke = brush.stroke
+        tipPaint.set(currentStrokePaint)
+        tipPaint.color = if (brush.paintHandler != null) hoverPaint.color else brush.color
+        val pressure = if (enablePressure) stroke.getPressure(stroke.size - 1) else 0f
+        tipPaint.strokeWidth = (brush.strokeWidth + (brush.strokeWidthMax - brush.strokeWidth) * pressure) *
+            resources.displayMetrics.density
+    }
+
+    private fun drawTip(canvas: Canvas) {
+        for (b in activeBrushes.indices) {
+            val brush = activeBrushes[b]
+            if (!hasTip(brush)) {
+                continue
+            }
+            val stroke = brush.stroke
+            val prediction = predictionOf(brush)
+            val last = stroke.size - 1
+            updateTipPaint(brush)
+
+            var startX = StrokeRenderer.curveStartX(stroke, stroke.lastPointReferenced)
+            var startY = StrokeRenderer.curveStartY(stroke, stroke.lastPointReferenced)
+            canvas.drawLine(startX, startY, stroke.getX(last), stroke.getY(last), tipPaint)
+            startX = stroke.getX(last)
+            startY = stroke.getY(last)
+            for (i in 0 until prediction.size) {
+                canvas.drawLine(startX, startY, prediction.getX(i), prediction.getY(i), tipPaint)
+                startX = prediction.getX(i)
+                startY = prediction.getY(i)
+            }
         }
+    }
+
+    private fun predictionOf(brush: Brush): InputManager.ExtendedStroke {
+        return renderThread.predictionOf(brush) ?: inputManager.getPrediction(brush.stroke)
+    }
 
-        if (points.size < minPointsForValidStroke) {
+    /**
+     * Grows the dirty region by [bounds] rounded out.
+     */
+    private fun invalidateBounds(bounds: RectF) {
+        if (bounds.isEmpty) {
             return
         }
+        dirtyRect.union(
+            floor(bounds.left - antiAliasPadding).toInt(),
+            floor(bounds.top - antiAliasPadding).toInt(),
+            ceil(bounds.right + antiAliasPadding).toInt(),
+            ceil(bounds.bottom + antiAliasPadding).toInt()
+        )
+    }
 
-        // update the drawCanvas with the latest stroke data
-        var startPoint = points[stroke.lastPointReferenced]
-        for (i in stroke.lastPointReferenced + 1 until points.size) {
-            val penInfo = stroke.getPenInfo(points[i])
-            if (penInfo != null) {
-                when {
-                    penInfo.pointerType == InputManager.PointerType.PEN_ERASER -> {
-                        drawCanvas.drawCircle(penInfo.x, penInfo.y, 30f, clearPaint)
-                    }
-                    dynamicPaintHandler != null -> {
-                        dynamicPaintHandler?.let { paintHandler ->
-                            val paint = paintHandler.generatePaintFromPenInfo(penInfo)
-                            hoverPaint.color = paint.color
-                            drawCanvas.drawLine(
-                                startPoint.x,
-                                startPoint.y,
-                                penInfo.x,
-                                penInfo.y,
-                                paint
-                            )
-                        }
+    /**
+     * Resets the blit counters reported by [lastFramePixelsBlitted], [totalPixelsBlitted] and
+     * [framesPresented].
+     */
+    fun resetFrameCounters() {
+        lastFramePixelsBlitted = 0
+        totalPixelsBlitted = 0
+        framesPresented = 0
+    }
+
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        (parent as? ViewGroup)?.overlay?.add(hoverCursor)
+        if (renderThreadRequested) {
+            startRenderThread()
+        }
+    }
+
+    override fun onDetachedFromWindow() {
+        (parent as? ViewGroup)?.overlay?.remove(hoverCursor)
+        removeCallbacks(hoverRunnable)
+        hoverScheduled = false
+        uiFrames.cancel()
+        stopRenderThread()
+        exporter.pool.clear()
+        super.onDetachedFromWindow()
+    }
+
+    private fun startRenderThread() {
+        inputManager.sampleBuffer = renderThread.start()
+    }
+
+    private fun stopRenderThread() {
+        inputManager.sampleBuffer = null
+        renderThread.stop()
+    }
+
+    /**
+     * Draws the strokes of the render thread like the ones of the UI thread
+     */
+    private inner class RenderHost : InkRenderThread.Host {
+        override val renderLock: Any
+            get() = this@InkView.renderLock
+
+        override val motionPredictor: InputManager.MotionPredictor?
+            get() = this@InkView.motionPredictor
+
+        // vector erasing works on the stroke model and stays on the UI thread
+        override fun isRendered(stroke: InputManager.ExtendedStroke): Boolean =
+            !(eraserMode == EraserMode.VECTOR && stroke.getPointerType(0) == InputManager.PointerType.PEN_ERASER)
+
+        override fun addActiveBrush(brush: Brush) {
+            activeBrushes.add(brush)
+            strokeMetricsOpen = true
+        }
+
+        override fun removeActiveBrush(brush: Brush) {
+            activeBrushes.remove(brush)
+        }
+
+        override fun drawStroke(brush: Brush, final: Boolean) {
+            this@InkView.drawStroke(brush, final = final)
+        }
+
+        override fun finishStroke(brush: Brush) {
+            finishWetStroke(brush)
+        }
+
+        override fun discardStroke(brush: Brush) {
+            this@InkView.discardStroke(brush)
+        }
+
+        override fun presentFrame() {
+            this@InkView.presentFrame()
+        }
+
+        override fun onStrokesRendered() {
+            post { maybeCheckpoint() }
+        }
+    }
+
+    /**
+     * Applies undone and redone changes to the stroke model and the committed tiles
+     */
+    private inner class UndoHost : InkUndoController.Host {
+        override val renderLock: Any
+            get() = this@InkView.renderLock
+
+        override val brushes: List<Brush>
+            get() = brushList
+
+        override fun spliceBrushes(position: Int, removed: List<Brush>, inserted: List<Brush>, order: Long?) {
+            this@InkView.spliceBrushes(position, removed, inserted, order)
+        }
+
+        override fun computeBounds(brush: Brush, out: RectF) {
+            strokeRenderer.computeBounds(brush, out)
+        }
+
+        override fun rasterizeArea(bounds: RectF) {
+            this@InkView.rasterizeArea(bounds)
+        }
+
+        override fun restoreCheckpoint(snapshot: InkTileStore.Snapshot, replay: List<Brush>) {
+            dryTiles.restore(snapshot)
+            replay.forEach { rasterize(it) }
+            fullFrameDirty = true
+        }
+
+        override fun drawOnTop(brush: Brush) {
+            rasterize(brush)
+            strokeRenderer.computeBounds(brush, brushBounds)
+            invalidateBounds(brushBounds)
+        }
+
+        override fun presentFrame() {
+            this@InkView.presentFrame()
+        }
+    }
+
+    private fun findActiveBrush(stroke: InputManager.ExtendedStroke): Brush? {
+        for (i in activeBrushes.indices) {
+            if (activeBrushes[i].stroke === stroke) {
+                return activeBrushes[i]
+            }
+        }
+        return null
+    }
+
+    /**
+     * Merges the wet tiles into the committed tiles and releases them.
+     */
+    private fun commitWetInk() {
+        trace("InkView.commitWetInk") { wetTiles.mergeInto(dryTiles) }
+        wetCommitted.clear()
+    }
+
+    /**
+     * Merges the wet tiles once the last active stroke completed, [brush] being the stroke that
+     * just completed.
+     */
+    private fun finishWetStroke(brush: Brush) {
+        if (activeBrushes.isEmpty()) {
+            commitWetInk()
+            reportStrokeMetrics()
+        } else if (renderMode == RenderMode.WET_DRY) {
+            wetCommitted.add(brush)
+        }
+    }
+
+    /**
+     * Removes the pixels drawn by the cancelled [brush], which is not active anymore. The
+     * strokes still active are drawn again where needed.
+     */
+    private fun discardStroke(brush: Brush) {
+        if (isVectorEraser(brush)) {
+            return
+        }
+        strokeRenderer.computeBounds(brush, erasedBounds)
+        if (renderMode == RenderMode.WET_DRY) {
+            // the wet tiles only hold the active strokes and the ones completed since the last
+            // merge, the completed ones move to the committed tiles and the active ones start over
+            wetCommitted.forEach { rasterize(it) }
+            clearWetInk()
+            for (i in activeBrushes.indices) {
+                if (!isVectorEraser(activeBrushes[i])) {
+                    activeBrushes[i].stroke.lastPointReferenced = 0
+                }
+            }
+            fullFrameDirty = true
+            if (!hasEraserSamples(brush.stroke)) {
+                erasedBounds.setEmpty()
+            }
+        } else {
+            // active strokes overlapping the area are drawn again from their first sample
+            var grown = true
+            while (grown) {
+                grown = false
+                for (i in activeBrushes.indices) {
+                    val active = activeBrushes[i]
+                    if (active.stroke.lastPointReferenced == 0 || isVectorEraser(active)) {
+                        continue
                     }
-                    enablePressure -> {
-                        updateStrokeWidth(penInfo.pressure)
-                        drawCanvas.drawLine(
-                            startPoint.x,
-                            startPoint.y,
-                            penInfo.x,
-                            penInfo.y,
-                            currentStrokePaint
-                        )
+                    strokeRenderer.computeBounds(active, activeBounds)
+                    if (RectF.intersects(erasedBounds, activeBounds)) {
+                        erasedBounds.union(activeBounds)
+                        active.stroke.lastPointReferenced = 0
+                        grown = true
                     }
-                    else -> {
-                        drawCanvas.drawLine(
-                            startPoint.x,
-                            startPoint.y,
-                            penInfo.x,
-                            penInfo.y,
-                            currentStrokePaint
-                        )
+                }
+            }
+        }
+        if (!erasedBounds.isEmpty) {
+            rasterizeArea(erasedBounds)
+        }
+        if (activeBrushes.isEmpty()) {
+            commitWetInk()
+            reportStrokeMetrics()
+        }
+        drawActiveStrokes()
+    }
+
+    private fun pushEraseStep() {
+        if (undoController.recordErase()) {
+            maybeCheckpoint()
+        }
+    }
+
+    private fun clearWetInk() {
+        wetTiles.clear()
+        wetCommitted.clear()
+    }
+
+    /**
+     * Rasterizes a complete [brush] into the committed tiles, restricted to [clip] if set.
+     */
+    private fun rasterize(brush: Brush, clip: Rect? = null) {
+        brush.stroke.lastPointReferenced = 0
+        val canvas = dryTiles.beginRecording()
+        strokeRenderer.render(canvas, canvas, brush, enablePressure, final = true)
+        dryTiles.endRecording(strokeRenderer.strokeBounds, strokeRenderer.eraserBounds, clip)
+        frameSegments += strokeRenderer.segmentCount
+    }
+
+    /**
+     * Adds a completed [brush] to the stroke model, simplified by [strokeSimplifier] if set.
+     */
+    private fun commitBrush(brush: Brush) {
+        val committed = strokeSimplifier?.let {
+            brush.copy(stroke = it.simplify(brush.stroke), rawStroke = if (keepRawStrokes) brush.stroke else null)
+        } ?: brush
+        strokeList += committed.stroke
+        brushList.add(committed)
+        indexBrush(committed)
+        undoController.recordStroke(committed)
+        maybeCheckpoint()
+    }
+
+    /**
+     * Reverts the last change to the committed strokes. Ignored while a stroke is drawn or ink
+     * is loading.
+     *
+     * @return false if there was nothing to undo
+     */
+    fun undo(): Boolean {
+        // a load replaces the brush list the step would be spliced into
+        if (isStrokeInProgress() || pendingLoad != null) {
+            return false
+        }
+        return undoController.undo()
+    }
+
+    /**
+     * Applies the last undone change again. Ignored while a stroke is drawn or ink is loading.
+     *
+     * @return false if there was nothing to redo
+     */
+    fun redo(): Boolean {
+        // a load replaces the brush list the step would be spliced into
+        if (isStrokeInProgress() || pendingLoad != null) {
+            return false
+        }
+        if (!undoController.redo()) {
+            return false
+        }
+        maybeCheckpoint()
+        return true
+    }
+
+    /**
+     * Rasterizes the committed ink under [bounds] again from the strokes and marks it dirty.
+     */
+    private fun rasterizeArea(bounds: RectF) {
+        erasedRect.set(
+            floor(bounds.left).toInt(),
+            floor(bounds.top).toInt(),
+            ceil(bounds.right).toInt(),
+            ceil(bounds.bottom).toInt()
+        )
+        rasterizeRegion(erasedRect)
+        dirtyRect.union(erasedRect)
+    }
+
+    /**
+     * Takes a raster checkpoint if one is due and the committed tiles match the committed
+     * strokes.
+     */
+    private fun maybeCheckpoint() {
+        if (!history.checkpointDue || renderThread.hasPendingStrokes || pendingLoad != null) {
+            return
+        }
+        synchronized(renderLock) {
+            if (activeBrushes.isEmpty()) {
+                // only shares the tiles, the ones drawn into later are copied first
+                history.addCheckpoint(dryTiles.snapshot())
+            }
+        }
+    }
+
+    private fun isStrokeInProgress(): Boolean {
+        return renderThread.hasPendingStrokes || synchronized(renderLock) { activeBrushes.isNotEmpty() }
+    }
+
+    /**
+     * Replaces the brushes [removed] found at [position] in the stroke model with [inserted].
+     * The inserted brushes take [order] in the drawing order, or go on top when null.
+     */
+    private fun spliceBrushes(position: Int, removed: List<Brush>, inserted: List<Brush>, order: Long? = null) {
+        removed.forEach { unindexBrush(it) }
+        inserted.forEach { indexBrush(it, order) }
+        repeat(removed.size) {
+            brushList.removeAt(position)
+            strokeList.removeAt(position)
+        }
+        brushList.addAll(position, inserted)
+        strokeList.addAll(position, inserted.map { it.stroke })
+    }
+
+    private fun isVectorEraser(brush: Brush): Boolean {
+        return eraserMode == EraserMode.VECTOR && brush.stroke.size > 0 &&
+            brush.stroke.getPointerType(0) == InputManager.PointerType.PEN_ERASER
+    }
+
+    /**
+     * Removes the committed ink under the eraser samples of [eraser] that were not applied yet,
+     * then rasterizes the tiles covering the removed geometry again.
+     */
+    private fun eraseStrokes(eraser: InputManager.ExtendedStroke) {
+        trace("InkView.eraseStrokes") {
+            // lastPointReferenced counts the eraser samples already applied
+            val first = eraser.lastPointReferenced
+            erasedBounds.setEmpty()
+            for (i in first until eraser.size) {
+                val startX = eraser.getX(maxOf(i - 1, 0))
+                val startY = eraser.getY(maxOf(i - 1, 0))
+                val endX = eraser.getX(i)
+                val endY = eraser.getY(i)
+
+                queryResults.clear()
+                brushIndex.query(
+                    min(startX, endX) - eraserRadius,
+                    min(startY, endY) - eraserRadius,
+                    max(startX, endX) + eraserRadius,
+                    max(startY, endY) + eraserRadius,
+                    queryResults
+                )
+                for (brush in queryResults) {
+                    // strokes of the pixel eraser stay as they are
+                    if (brush.stroke.getPointerType(0) == InputManager.PointerType.PEN_ERASER) {
+                        continue
                     }
+                    val halfWidth = strokeRenderer.maxHalfWidth(brush)
+                    val runs = VectorEraser.erase(
+                        brush.stroke,
+                        startX,
+                        startY,
+                        endX,
+                        endY,
+                        eraserRadius + halfWidth,
+                        eraseDamage
+                    ) ?: continue
+                    replaceBrush(brush, runs)
+                    val pad = halfWidth + antiAliasPadding
+                    erasedBounds.union(
+                        eraseDamage[0] - pad,
+                        eraseDamage[1] - pad,
+                        eraseDamage[2] + pad,
+                        eraseDamage[3] + pad
+                    )
                 }
+            }
+            queryResults.clear()
+            eraser.lastPointReferenced = eraser.size
 
-                startPoint = points[i]
+            if (!erasedBounds.isEmpty) {
+                rasterizeArea(erasedBounds)
             }
         }
-        stroke.lastPointReferenced = points.size - 1
+    }
+
+    /**
+     * Replaces the committed [brush] with one brush per range of samples in [runs], keeping
+     * their position in the drawing order. An empty [runs] deletes the brush.
+     */
+    private fun replaceBrush(brush: Brush, runs: List<IntRange>) {
+        // the recorded samples don't match the pieces anymore and are dropped
+        val pieces = runs.map { brush.copy(stroke = brush.stroke.copyRange(it.first, it.last + 1), rawStroke = null) }
+        val position = brushList.indexOfFirst { it === brush }
+        if (position < 0) {
+            return
+        }
+        val order = brushIndex.orderOf(brush)
+        spliceBrushes(position, listOf(brush), pieces, order)
+        undoController.recordReplacement(brush, position, order, pieces)
+    }
+
+    private fun indexBrush(brush: Brush, order: Long? = null) {
+        synchronized(renderLock) {
+            strokeRenderer.computeBounds(brush, brushBounds)
+            if (order == null) {
+                brushIndex.insert(brush, brushBounds.left, brushBounds.top, brushBounds.right, brushBounds.bottom)
+            } else {
+                brushIndex.insert(brush, brushBounds.left, brushBounds.top, brushBounds.right, brushBounds.bottom, order)
+            }
+            displayLists.invalidate(brushBounds)
+        }
+    }
+
+    private fun unindexBrush(brush: Brush) {
+        synchronized(renderLock) {
+            brushIndex.remove(brush)
+            strokeRenderer.computeBounds(brush, brushBounds)
+            displayLists.invalidate(brushBounds)
+        }
+    }
+
+    private fun clearBrushIndex() {
+        synchronized(renderLock) {
+            brushIndex.clear()
+            displayLists.clear()
+        }
+    }
+
+    /**
+     * Rasterizes the committed tiles intersecting [region] again, only the strokes whose
+     * bounds touch the region are replayed.
+     */
+    private fun rasterizeRegion(region: Rect) {
+        trace("InkView.rasterizeRegion") {
+            dryTiles.releaseTiles(region)
+            if (region.isEmpty) {
+                return
+            }
+            if (displayListsEnabled) {
+                frameSegments += displayLists.draw(dryTiles, region, brushIndex, strokeRenderer, enablePressure)
+                return
+            }
+            queryResults.clear()
+            brushIndex.query(
+                region.left.toFloat(),
+                region.top.toFloat(),
+                region.right.toFloat(),
+                region.bottom.toFloat(),
+                queryResults
+            )
+            for (i in queryResults.indices) {
+                rasterize(queryResults[i], region)
+            }
+            queryResults.clear()
+        }
+    }
+
+    private fun recordSamples(stroke: InputManager.ExtendedStroke, count: Int) {
+        if (metricsListener != null && count > 0) {
+            ingestedSamples.addAndGet(count)
+            latestSampleTime = stroke.getTimestamp(stroke.size - 1)
+        }
+    }
+
+    private fun reportFrameMetrics(posted: Boolean) {
+        val listener = metricsListener
+        if (listener == null) {
+            frameSegments = 0
+            return
+        }
+        val metrics = frameMetrics
+        metrics.reset()
+        metrics.samples = ingestedSamples.getAndSet(0)
+        metrics.segments = frameSegments
+        metrics.pixelsBlitted = if (posted) lastFramePixelsBlitted else 0
+        if (metrics.samples > 0) {
+            metrics.inputLatencyMillis = SystemClock.uptimeMillis() - latestSampleTime
+        }
+        metrics.posted = posted
+        frameSegments = 0
+        if (strokeMetricsOpen) {
+            strokeMetrics.add(metrics)
+        }
+        listener.onFrame(metrics)
+    }
+
+    private fun reportStrokeMetrics() {
+        if (strokeMetricsOpen) {
+            strokeMetricsOpen = false
+            metricsListener?.onStroke(strokeMetrics)
+            strokeMetrics.reset()
+        }
+    }
+
+    private fun drawActiveStrokes() {
+        for (i in activeBrushes.indices) {
+            drawStroke(activeBrushes[i])
+        }
+    }
+
+    /**
+     * Rasterizes the samples of the active [brush] that were not drawn yet.
+     *
+     * @param wet true to draw into the wet tiles instead of the committed ones, erasing is
+     * always applied to the committed tiles
+     * @param final true if the stroke is complete
+     */
+    private fun drawStroke(brush: Brush, wet: Boolean = renderMode == RenderMode.WET_DRY, final: Boolean = false) {
+        trace("InkView.drawStroke") {
+            if (isVectorEraser(brush)) {
+                eraseStrokes(brush.stroke)
+                return
+            }
+            if (brush.stroke.size < minPointsForValidStroke) {
+                return
+            }
+
+            val eraserCanvas = dryTiles.beginRecording()
+            val strokeCanvas = if (wet) wetTiles.beginRecording() else eraserCanvas
+            strokeRenderer.render(strokeCanvas, eraserCanvas, brush, enablePressure, final)
+            frameSegments += strokeRenderer.segmentCount
+            strokeRenderer.lastDynamicColor?.let { hoverPaint.color = it }
+            if (wet) {
+                wetTiles.endRecording(strokeRenderer.strokeBounds, emptyBounds)
+                dryTiles.endRecording(emptyBounds, strokeRenderer.eraserBounds)
+            } else {
+                dryTiles.endRecording(strokeRenderer.strokeBounds, strokeRenderer.eraserBounds)
+            }
+            invalidateBounds(strokeRenderer.strokeBounds)
+            invalidateBounds(strokeRenderer.eraserBounds)
+        }
     }
 
     /**
@@ -426,11 +1766,14 @@ class InkView constructor(
      * @param height The height of the surface
      */
     override fun onSurfaceTextureAvailable(surface: SurfaceTexture, width: Int, height: Int) {
-        if (width > 0 && height > 0) {
-            this.surface = Surface(surface)
-        } else {
-            this.surface?.release()
-            this.surface = null
+        synchronized(renderLock) {
+            if (width > 0 && height > 0) {
+                this.surface = Surface(surface)
+                fullFrameDirty = true
+            } else {
+                this.surface?.release()
+                this.surface = null
+            }
         }
     }
 
@@ -454,7 +1797,10 @@ class InkView constructor(
      * @param surface The surface about to be destroyed
      */
     override fun onSurfaceTextureDestroyed(surface: SurfaceTexture): Boolean {
-        this.surface?.release()
+        synchronized(renderLock) {
+            this.surface?.release()
+            this.surface = null
+        }
         return true
     }
 
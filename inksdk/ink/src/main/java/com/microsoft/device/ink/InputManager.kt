@@ -6,28 +6,135 @@
 package com.microsoft.device.ink
 
 import android.annotation.SuppressLint
+import android.graphics.RectF
 import android.view.MotionEvent
 import android.view.View
 
 class InputManager(view: View, private val penInputHandler: PenInputHandler, private val penHoverHandler: PenHoverHandler? = null) {
 
+    /**
+     * Stroke of the pointer that went down last
+     */
     var currentStroke = ExtendedStroke()
 
+    /**
+     * When enabled, the [PenInfo] based callbacks of [PenInputHandler] are dispatched as well.
+     * Creating a [PenInfo] allocates on every sample of a stroke, so this is opt-in. The
+     * [PenInfo] based callbacks of [PenHoverHandler] are always dispatched.
+     */
+    var penInfoCallbacksEnabled = false
+
+    /**
+     * Optional predictor that extrapolates the current stroke ahead of the latest sample.
+     * The result is available in [predictedStroke] when [PenInputHandler.strokeUpdated] is called.
+     */
+    var predictor: MotionPredictor? = null
+        set(value) {
+            field = value
+            predictedStroke.reset()
+        }
+
+    /**
+     * Predicted samples following the last sample of [currentStroke], empty when there is
+     * no prediction. The content is replaced on every update.
+     */
+    val predictedStroke: ExtendedStroke
+        get() = getPrediction(currentStroke)
+
+    /**
+     * When enabled, every pointer touching the view draws its own stroke, so several fingers
+     * or pens can ink at once. Otherwise only the pointer that went down first draws.
+     */
+    var multiPointerEnabled = false
+
+    /**
+     * Pointer types that never start a stroke, for example [PointerType.FINGER] to only ink
+     * with a pen
+     */
+    var rejectedPointerTypes: Set<PointerType> = emptySet()
+
+    /**
+     * Contacts whose touch major axis is larger than this, in pixels, are taken for a palm
+     * and don't start a stroke. A stroke whose contact grows past it is cancelled. Disabled
+     * when 0.
+     */
+    var palmTouchMajor = 0f
+
+    /**
+     * When enabled, touch and stylus gestures are dispatched to the view as soon as each event
+     * arrives instead of being batched until the next frame, see
+     * [View.requestUnbufferedDispatch]. Every sample then reaches the handlers with its own
+     * timestamp at the cost of more callbacks per frame.
+     */
+    var unbufferedDispatchEnabled = false
+
+    /**
+     * Bounds of the hinge between two screens, in view coordinates, or null when the view is on
+     * a single screen. A stroke crossing the hinge ends where it leaves a screen, and the
+     * samples on the other screen continue as a new stroke.
+     */
+    var hingeBounds: RectF? = null
+
+    // pooled per pointer state, a slot is free when its pointer id is INVALID_POINTER_ID
+    private val slots = Array(MAX_POINTERS) { PointerSlot() }
+    private val emptyPrediction = ExtendedStroke(1)
+
+    /**
+     * Optional queue every stroke sample is also pushed into, for consumption on another
+     * thread. The samples are pushed before the [PenInputHandler] callbacks are called. A stroke
+     * whose first sample doesn't fit in the queue is not pushed at all, see [isBuffered].
+     */
+    @Volatile
+    var sampleBuffer: SampleRingBuffer? = null
+
     init {
         setupInputEvents(view)
         currentStroke.reset()
     }
 
+    /**
+     * Receives the strokes drawn on the view. The [ExtendedStroke] passed to the callbacks
+     * belongs to the pointer drawing it and is reused for later strokes once [strokeCompleted]
+     * or [strokeCancelled] returned, copy it with [ExtendedStroke.copy] to keep it.
+     */
     interface PenInputHandler {
-        fun strokeStarted(penInfo: PenInfo, stroke: ExtendedStroke)
-        fun strokeUpdated(penInfo: PenInfo, stroke: ExtendedStroke)
-        fun strokeCompleted(penInfo: PenInfo, stroke: ExtendedStroke)
+        fun strokeStarted(stroke: ExtendedStroke) {}
+
+        /**
+         * Called once per [MotionEvent] batch, the samples in [fromIndex] until [toIndex]
+         * were appended to [stroke].
+         */
+        fun strokeUpdated(stroke: ExtendedStroke, fromIndex: Int, toIndex: Int) {}
+        fun strokeCompleted(stroke: ExtendedStroke) {}
+
+        /**
+         * Called instead of [strokeCompleted] when the gesture was cancelled or the contact was
+         * rejected as a palm, [stroke] should be discarded.
+         */
+        fun strokeCancelled(stroke: ExtendedStroke) {}
+
+        // Only dispatched when penInfoCallbacksEnabled is set
+        fun strokeStarted(penInfo: PenInfo, stroke: ExtendedStroke) {}
+        fun strokeUpdated(penInfo: PenInfo, stroke: ExtendedStroke) {}
+        fun strokeCompleted(penInfo: PenInfo, stroke: ExtendedStroke) {}
+    }
+
+    interface MotionPredictor {
+        /**
+         * Fills [prediction] with samples expected to follow the last sample of [stroke].
+         * [prediction] is reset before this is called.
+         */
+        fun predict(stroke: ExtendedStroke, prediction: ExtendedStroke)
     }
 
     interface PenHoverHandler {
-        fun hoverStarted(penInfo: PenInfo)
-        fun hoverMoved(penInfo: PenInfo)
-        fun hoverEnded(penInfo: PenInfo)
+        fun hoverStarted(x: Float, y: Float, pointerType: PointerType) {}
+        fun hoverMoved(x: Float, y: Float, pointerType: PointerType) {}
+        fun hoverEnded(x: Float, y: Float, pointerType: PointerType) {}
+
+        fun hoverStarted(penInfo: PenInfo) {}
+        fun hoverMoved(penInfo: PenInfo) {}
+        fun hoverEnded(penInfo: PenInfo) {}
     }
 
     enum class PointerType {
@@ -35,7 +142,19 @@ class InputManager(view: View, private val penInputHandler: PenInputHandler, pri
         FINGER,
         PEN_TIP,
         PEN_ERASER,
-        UNKNOWN
+        UNKNOWN;
+
+        companion object {
+            fun fromToolType(toolType: Int): PointerType {
+                return when (toolType) {
+                    MotionEvent.TOOL_TYPE_FINGER -> FINGER
+                    MotionEvent.TOOL_TYPE_MOUSE -> MOUSE
+                    MotionEvent.TOOL_TYPE_STYLUS -> PEN_TIP
+                    MotionEvent.TOOL_TYPE_ERASER -> PEN_ERASER
+                    else -> UNKNOWN
+                }
+            }
+        }
     }
 
     class Point(
@@ -43,6 +162,12 @@ class InputManager(view: View, private val penInputHandler: PenInputHandler, pri
         val y: Float,
     )
 
+    /**
+     * State of a pointer at one sample.
+     *
+     * @param timestamp time of the sample in milliseconds, in the
+     * [android.os.SystemClock.uptimeMillis] time base of [MotionEvent.getEventTime]
+     */
     data class PenInfo(
         val pointerType: PointerType,
         val x: Float,
@@ -51,60 +176,76 @@ class InputManager(view: View, private val penInputHandler: PenInputHandler, pri
         val orientation: Float,
         val tilt: Float,
         val primaryButtonState: Boolean,
-        val secondaryButtonState: Boolean
+        val secondaryButtonState: Boolean,
+        val timestamp: Long = 0L
     ) {
         companion object {
-            fun createFromEvent(event: MotionEvent): PenInfo {
-                val pointerType: PointerType = when (event.getToolType(0)) {
-                    MotionEvent.TOOL_TYPE_FINGER -> PointerType.FINGER
-                    MotionEvent.TOOL_TYPE_MOUSE -> PointerType.MOUSE
-                    MotionEvent.TOOL_TYPE_STYLUS -> PointerType.PEN_TIP
-                    MotionEvent.TOOL_TYPE_ERASER -> PointerType.PEN_ERASER
-                    else -> PointerType.UNKNOWN
-                }
+            fun createFromEvent(event: MotionEvent, pointerIndex: Int = 0): PenInfo {
+                val pointerType = PointerType.fromToolType(event.getToolType(pointerIndex))
 
                 return PenInfo(
                     pointerType = pointerType,
-                    x = event.x,
-                    y = event.y,
-                    pressure = event.pressure,
-                    orientation = event.orientation,
-                    tilt = event.getAxisValue(MotionEvent.AXIS_TILT),
-                    primaryButtonState = ((event.buttonState and MotionEvent.BUTTON_PRIMARY) > 0)
-                        or ((event.buttonState and MotionEvent.BUTTON_STYLUS_PRIMARY) > 0),
-                    secondaryButtonState = ((event.buttonState and MotionEvent.BUTTON_SECONDARY) > 0)
-                        or ((event.buttonState and MotionEvent.BUTTON_STYLUS_SECONDARY) > 0)
+                    x = event.getX(pointerIndex),
+                    y = event.getY(pointerIndex),
+                    pressure = event.getPressure(pointerIndex),
+                    orientation = event.getOrientation(pointerIndex),
+                    tilt = event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex),
+                    primaryButtonState = isPrimaryButton(event.buttonState),
+                    secondaryButtonState = isSecondaryButton(event.buttonState),
+                    timestamp = event.eventTime
                 )
             }
 
-            fun createFromHistoryEvent(event: MotionEvent, pos: Int): PenInfo {
-                val pointerType: PointerType = when (event.getToolType(0)) {
-                    MotionEvent.TOOL_TYPE_FINGER -> PointerType.FINGER
-                    MotionEvent.TOOL_TYPE_MOUSE -> PointerType.MOUSE
-                    MotionEvent.TOOL_TYPE_STYLUS -> PointerType.PEN_TIP
-                    MotionEvent.TOOL_TYPE_ERASER -> PointerType.PEN_ERASER
-                    else -> PointerType.UNKNOWN
-                }
+            fun createFromHistoryEvent(event: MotionEvent, pos: Int, pointerIndex: Int = 0): PenInfo {
+                val pointerType = PointerType.fromToolType(event.getToolType(pointerIndex))
 
                 return PenInfo(
                     pointerType = pointerType,
-                    x = event.getHistoricalX(pos),
-                    y = event.getHistoricalY(pos),
-                    pressure = event.getHistoricalPressure(pos),
-                    orientation = event.getHistoricalOrientation(pos),
-                    tilt = event.getHistoricalAxisValue(MotionEvent.AXIS_TILT, pos),
-                    primaryButtonState = ((event.buttonState and MotionEvent.BUTTON_PRIMARY) > 0)
-                        or ((event.buttonState and MotionEvent.BUTTON_STYLUS_PRIMARY) > 0),
-                    secondaryButtonState = ((event.buttonState and MotionEvent.BUTTON_SECONDARY) > 0)
-                        or ((event.buttonState and MotionEvent.BUTTON_STYLUS_SECONDARY) > 0)
+                    x = event.getHistoricalX(pointerIndex, pos),
+                    y = event.getHistoricalY(pointerIndex, pos),
+                    pressure = event.getHistoricalPressure(pointerIndex, pos),
+                    orientation = event.getHistoricalOrientation(pointerIndex, pos),
+                    tilt = event.getHistoricalAxisValue(MotionEvent.AXIS_TILT, pointerIndex, pos),
+                    primaryButtonState = isPrimaryButton(event.buttonState),
+                    secondaryButtonState = isSecondaryButton(event.buttonState),
+                    timestamp = event.getHistoricalEventTime(pos)
                 )
             }
         }
     }
 
-    class ExtendedStroke {
-        private var builder = mutableListOf<Point>()
-        private var penInfos = HashMap<Int, PenInfo>()
+    /**
+     * Growable struct-of-arrays store for the samples of a single stroke.
+     *
+     * Each sample attribute lives in its own primitive column, so samples can be read by index
+     * without allocating. [getPoints] and [getPenInfo] are kept for compatibility and allocate
+     * on every call.
+     */
+    class ExtendedStroke(initialCapacity: Int = DEFAULT_CAPACITY) {
+        private var xs = FloatArray(initialCapacity)
+        private var ys = FloatArray(initialCapacity)
+        private var pressures = FloatArray(initialCapacity)
+        private var tilts = FloatArray(initialCapacity)
+        private var orientations = FloatArray(initialCapacity)
+        private var timestamps = LongArray(initialCapacity)
+        private var toolTypes = ByteArray(initialCapacity)
+        private var buttonStates = ByteArray(initialCapacity)
+
+        /**
+         * Number of samples stored in the stroke
+         */
+        var size = 0
+            private set
+
+        // bounding box of the sample coordinates
+        var minX = Float.POSITIVE_INFINITY
+            private set
+        var minY = Float.POSITIVE_INFINITY
+            private set
+        var maxX = Float.NEGATIVE_INFINITY
+            private set
+        var maxY = Float.NEGATIVE_INFINITY
+            private set
 
         private var _lastPointReferenced = 0
         var lastPointReferenced: Int
@@ -113,24 +254,241 @@ class InputManager(view: View, private val penInputHandler: PenInputHandler, pri
                 _lastPointReferenced = value
             }
 
+        fun getX(index: Int): Float = xs[index]
+
+        fun getY(index: Int): Float = ys[index]
+
+        fun getPressure(index: Int): Float = pressures[index]
+
+        fun getTilt(index: Int): Float = tilts[index]
+
+        fun getOrientation(index: Int): Float = orientations[index]
+
+        /**
+         * Time of sample [index] in milliseconds, historical samples keep their own time so
+         * the deltas between samples are the real ones even when events are batched
+         */
+        fun getTimestamp(index: Int): Long = timestamps[index]
+
+        fun getPointerType(index: Int): PointerType = pointerTypes[toolTypes[index].toInt()]
+
+        fun isPrimaryButtonPressed(index: Int): Boolean =
+            (buttonStates[index].toInt() and PRIMARY_BUTTON_FLAG) != 0
+
+        fun isSecondaryButtonPressed(index: Int): Boolean =
+            (buttonStates[index].toInt() and SECONDARY_BUTTON_FLAG) != 0
+
         fun addPoint(penInfo: PenInfo) {
-            val point = Point(penInfo.x, penInfo.y)
-            builder.add(point)
-            penInfos[builder.lastIndex] = penInfo // hash codes don't serialize well, so use index
+            addSample(
+                penInfo.pointerType,
+                penInfo.x,
+                penInfo.y,
+                penInfo.pressure,
+                penInfo.orientation,
+                penInfo.tilt,
+                penInfo.timestamp,
+                penInfo.primaryButtonState,
+                penInfo.secondaryButtonState
+            )
+        }
+
+        fun addSample(
+            pointerType: PointerType,
+            x: Float,
+            y: Float,
+            pressure: Float,
+            orientation: Float,
+            tilt: Float,
+            timestamp: Long,
+            primaryButtonState: Boolean,
+            secondaryButtonState: Boolean
+        ) {
+            ensureCapacity(size + 1)
+            xs[size] = x
+            ys[size] = y
+            pressures[size] = pressure
+            orientations[size] = orientation
+            tilts[size] = tilt
+            timestamps[size] = timestamp
+            toolTypes[size] = pointerType.ordinal.toByte()
+            var buttons = 0
+            if (primaryButtonState) buttons = buttons or PRIMARY_BUTTON_FLAG
+            if (secondaryButtonState) buttons = buttons or SECONDARY_BUTTON_FLAG
+            buttonStates[size] = buttons.toByte()
+            size++
+
+            if (x < minX) minX = x
+            if (y < minY) minY = y
+            if (x > maxX) maxX = x
+            if (y > maxY) maxY = y
+        }
+
+        /**
+         * Copies the historical samples and the current sample of [event] for [pointerIndex]
+         * straight into the stroke columns.
+         */
+        fun addSamples(event: MotionEvent, pointerIndex: Int = 0) {
+            val pointerType = PointerType.fromToolType(event.getToolType(pointerIndex))
+            val buttonState = event.buttonState
+            val primaryButtonState = isPrimaryButton(buttonState)
+            val secondaryButtonState = isSecondaryButton(buttonState)
+            val historySize = event.historySize
+
+            ensureCapacity(size + historySize + 1)
+            for (pos in 0 until historySize) {
+                addSample(
+                    pointerType,
+                    event.getHistoricalX(pointerIndex, pos),
+                    event.getHistoricalY(pointerIndex, pos),
+                    event.getHistoricalPressure(pointerIndex, pos),
+                    event.getHistoricalOrientation(pointerIndex, pos),
+                    event.getHistoricalAxisValue(MotionEvent.AXIS_TILT, pointerIndex, pos),
+                    event.getHistoricalEventTime(pos),
+                    primaryButtonState,
+                    secondaryButtonState
+                )
+            }
+            addSample(
+                pointerType,
+                event.getX(pointerIndex),
+                event.getY(pointerIndex),
+                event.getPressure(pointerIndex),
+                event.getOrientation(pointerIndex),
+                event.getAxisValue(MotionEvent.AXIS_TILT, pointerIndex),
+                event.eventTime,
+                primaryButtonState,
+                secondaryButtonState
+            )
         }
 
         fun getPoints(): List<Point> {
-            return builder
+            return List(size) { Point(xs[it], ys[it]) }
+        }
+
+        fun getPenInfo(index: Int): PenInfo {
+            return PenInfo(
+                pointerType = getPointerType(index),
+                x = xs[index],
+                y = ys[index],
+                pressure = pressures[index],
+                orientation = orientations[index],
+                tilt = tilts[index],
+                primaryButtonState = isPrimaryButtonPressed(index),
+                secondaryButtonState = isSecondaryButtonPressed(index),
+                timestamp = timestamps[index]
+            )
         }
 
         fun getPenInfo(point: Point): PenInfo? {
-            return penInfos[builder.indexOf(point)]
+            for (i in 0 until size) {
+                if (xs[i] == point.x && ys[i] == point.y) {
+                    return getPenInfo(i)
+                }
+            }
+            return null
+        }
+
+        /**
+         * Returns a copy of the stroke with its columns trimmed to [size].
+         */
+        fun copy(): ExtendedStroke {
+            val copy = copyRange(0, size)
+            // the bounds of all samples are already known
+            copy.minX = minX
+            copy.minY = minY
+            copy.maxX = maxX
+            copy.maxY = maxY
+            return copy
+        }
+
+        /**
+         * Returns a new stroke holding the samples from [fromIndex] inclusive to [toIndex]
+         * exclusive.
+         */
+        fun copyRange(fromIndex: Int, toIndex: Int): ExtendedStroke {
+            require(fromIndex in 0..toIndex && toIndex <= size) { "Invalid range $fromIndex..$toIndex of $size samples" }
+            val copy = ExtendedStroke(maxOf(toIndex - fromIndex, 1))
+            copy.set(this, fromIndex, toIndex)
+            return copy
+        }
+
+        /**
+         * Replaces the samples of the stroke with the samples of [source] from [fromIndex]
+         * inclusive to [toIndex] exclusive, reusing the columns when they are large enough.
+         */
+        fun set(source: ExtendedStroke, fromIndex: Int = 0, toIndex: Int = source.size) {
+            require(source !== this) { "Can't copy a stroke into itself" }
+            require(fromIndex in 0..toIndex && toIndex <= source.size) {
+                "Invalid range $fromIndex..$toIndex of ${source.size} samples"
+            }
+            reset()
+            val count = toIndex - fromIndex
+            ensureCapacity(count)
+            System.arraycopy(source.xs, fromIndex, xs, 0, count)
+            System.arraycopy(source.ys, fromIndex, ys, 0, count)
+            System.arraycopy(source.pressures, fromIndex, pressures, 0, count)
+            System.arraycopy(source.tilts, fromIndex, tilts, 0, count)
+            System.arraycopy(source.orientations, fromIndex, orientations, 0, count)
+            System.arraycopy(source.timestamps, fromIndex, timestamps, 0, count)
+            System.arraycopy(source.toolTypes, fromIndex, toolTypes, 0, count)
+            System.arraycopy(source.buttonStates, fromIndex, buttonStates, 0, count)
+            size = count
+            for (i in 0 until count) {
+                if (xs[i] < minX) minX = xs[i]
+                if (ys[i] < minY) minY = ys[i]
+                if (xs[i] > maxX) maxX = xs[i]
+                if (ys[i] > maxY) maxY = ys[i]
+            }
+        }
+
+        /**
+         * Drops the samples from [newSize] on.
+         */
+        fun truncate(newSize: Int) {
+            require(newSize in 0..size) { "Invalid size $newSize of $size samples" }
+            size = newSize
+            lastPointReferenced = minOf(lastPointReferenced, maxOf(newSize - 1, 0))
+            minX = Float.POSITIVE_INFINITY
+            minY = Float.POSITIVE_INFINITY
+            maxX = Float.NEGATIVE_INFINITY
+            maxY = Float.NEGATIVE_INFINITY
+            for (i in 0 until newSize) {
+                if (xs[i] < minX) minX = xs[i]
+                if (ys[i] < minY) minY = ys[i]
+                if (xs[i] > maxX) maxX = xs[i]
+                if (ys[i] > maxY) maxY = ys[i]
+            }
         }
 
         fun reset() {
-            builder.clear()
+            size = 0
             lastPointReferenced = 0
-            penInfos.clear()
+            minX = Float.POSITIVE_INFINITY
+            minY = Float.POSITIVE_INFINITY
+            maxX = Float.NEGATIVE_INFINITY
+            maxY = Float.NEGATIVE_INFINITY
+        }
+
+        private fun ensureCapacity(capacity: Int) {
+            if (capacity <= xs.size) {
+                return
+            }
+            val newCapacity = maxOf(capacity, xs.size + (xs.size shr 1) + 1)
+            xs = xs.copyOf(newCapacity)
+            ys = ys.copyOf(newCapacity)
+            pressures = pressures.copyOf(newCapacity)
+            tilts = tilts.copyOf(newCapacity)
+            orientations = orientations.copyOf(newCapacity)
+            timestamps = timestamps.copyOf(newCapacity)
+            toolTypes = toolTypes.copyOf(newCapacity)
+            buttonStates = buttonStates.copyOf(newCapacity)
+        }
+
+        companion object {
+            const val DEFAULT_CAPACITY = 64
+            private const val PRIMARY_BUTTON_FLAG = 1
+            private const val SECONDARY_BUTTON_FLAG = 2
+            private val pointerTypes = PointerType.values()
         }
     }
 
@@ -142,52 +500,321 @@ class InputManager(view: View, private val penInputHandler: PenInputHandler, pri
             if (penHoverHandler == null) {
                 consumed = false
             } else {
-                val penInfo = PenInfo.createFromEvent(event)
+                val pointerType = PointerType.fromToolType(event.getToolType(0))
 
                 when (event.actionMasked) {
                     MotionEvent.ACTION_HOVER_MOVE -> {
                         for (i in 0 until event.historySize) {
+                            penHoverHandler.hoverMoved(event.getHistoricalX(i), event.getHistoricalY(i), pointerType)
                             penHoverHandler.hoverMoved(PenInfo.createFromHistoryEvent(event, i))
                         }
-                        penHoverHandler.hoverMoved(penInfo)
+                        penHoverHandler.hoverMoved(event.x, event.y, pointerType)
+                        penHoverHandler.hoverMoved(PenInfo.createFromEvent(event))
                     }
                     MotionEvent.ACTION_HOVER_ENTER -> {
-                        penHoverHandler.hoverStarted(penInfo)
+                        penHoverHandler.hoverStarted(event.x, event.y, pointerType)
+                        penHoverHandler.hoverStarted(PenInfo.createFromEvent(event))
                     }
                     MotionEvent.ACTION_HOVER_EXIT -> {
-                        penHoverHandler.hoverEnded(penInfo)
+                        penHoverHandler.hoverEnded(event.x, event.y, pointerType)
+                        penHoverHandler.hoverEnded(PenInfo.createFromEvent(event))
                     }
                     else -> consumed = false
                 }
             }
             consumed
         }
-        view.setOnTouchListener { _: View, event: MotionEvent ->
+        view.setOnTouchListener { v: View, event: MotionEvent ->
             var consumed = true
-            val penInfo = PenInfo.createFromEvent(event)
 
             when (event.actionMasked) {
                 MotionEvent.ACTION_DOWN -> {
-                    currentStroke = ExtendedStroke()
-                    currentStroke.addPoint(penInfo)
-                    penInputHandler.strokeStarted(penInfo, currentStroke)
+                    if (unbufferedDispatchEnabled) {
+                        // lasts until the end of the gesture
+                        v.requestUnbufferedDispatch(event)
+                    }
+                    // a gesture that never ended is dropped
+                    cancelStrokes()
+                    startStroke(event, event.actionIndex)
+                }
+                MotionEvent.ACTION_POINTER_DOWN -> {
+                    if (multiPointerEnabled) {
+                        startStroke(event, event.actionIndex)
+                    }
                 }
                 MotionEvent.ACTION_MOVE -> {
-
-                    for (i in 0 until event.historySize) {
-                        currentStroke.addPoint(PenInfo.createFromHistoryEvent(event, i))
+                    for (pointerIndex in 0 until event.pointerCount) {
+                        val slot = findSlot(event.getPointerId(pointerIndex)) ?: continue
+                        if (palmTouchMajor > 0f && event.getTouchMajor(pointerIndex) > palmTouchMajor) {
+                            cancelStroke(slot)
+                        } else {
+                            updateStroke(slot, event, pointerIndex)
+                        }
                     }
-                    currentStroke.addPoint(penInfo)
-                    penInputHandler.strokeUpdated(penInfo, currentStroke)
                 }
-                MotionEvent.ACTION_UP -> {
-                    currentStroke.addPoint(penInfo)
-                    penInputHandler.strokeCompleted(penInfo, currentStroke)
+                MotionEvent.ACTION_POINTER_UP, MotionEvent.ACTION_UP -> {
+                    val slot = findSlot(event.getPointerId(event.actionIndex))
+                    if (slot != null) {
+                        if (event.flags and FLAG_CANCELED != 0) {
+                            cancelStroke(slot)
+                        } else {
+                            completeStroke(slot, event, event.actionIndex)
+                        }
+                    }
                 }
+                MotionEvent.ACTION_CANCEL -> cancelStrokes()
                 else -> consumed = false
             }
 
             consumed
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the prediction following the last sample of the active [stroke], empty when
+     * there is none
+     */
+    fun getPrediction(stroke: ExtendedStroke): ExtendedStroke {
+        for (slot in slots) {
+            if (slot.pointerId != INVALID_POINTER_ID && slot.stroke === stroke) {
+                return slot.prediction
+            }
+        }
+        return emptyPrediction
+    }
+
+    /**
+     * @return true if the samples of the active [stroke] are pushed into [sampleBuffer]. Only
+     * one stroke at a time is, the strokes of the other pointers are not.
+     */
+    fun isBuffered(stroke: ExtendedStroke): Boolean {
+        for (slot in slots) {
+            if (slot.pointerId != INVALID_POINTER_ID && slot.stroke === stroke) {
+                return slot.buffered
+            }
+        }
+        return false
+    }
+
+    private fun startStroke(event: MotionEvent, pointerIndex: Int) {
+        if (isRejected(event, pointerIndex)) {
+            return
+        }
+        val slot = findSlot(INVALID_POINTER_ID) ?: return
+        slot.pointerId = event.getPointerId(pointerIndex)
+        slot.buffered = sampleBuffer != null && slots.none { it.pointerId != INVALID_POINTER_ID && it.buffered }
+        // the columns of the previous stroke of the slot are reused
+        val stroke = slot.stroke
+        stroke.reset()
+        stroke.addSamples(event, pointerIndex)
+        beginStroke(slot, stroke, if (penInfoCallbacksEnabled) PenInfo.createFromEvent(event, pointerIndex) else null)
+    }
+
+    /**
+     * @param penInfo sample passed to the [PenInfo] based callback, null when those are disabled
+     */
+    private fun beginStroke(slot: PointerSlot, stroke: ExtendedStroke, penInfo: PenInfo?) {
+        slot.stroke = stroke
+        slot.prediction.reset()
+        currentStroke = stroke
+        pushSamples(slot, 0)
+        penInputHandler.strokeStarted(stroke)
+        if (penInfo != null) {
+            penInputHandler.strokeStarted(penInfo, stroke)
+        }
+    }
+
+    private fun updateStroke(slot: PointerSlot, event: MotionEvent, pointerIndex: Int) {
+        val appendedFrom = slot.stroke.size
+        slot.stroke.addSamples(event, pointerIndex)
+        val fromIndex = splitAtHinge(slot, appendedFrom)
+        val stroke = slot.stroke
+        slot.prediction.reset()
+        predictor?.predict(stroke, slot.prediction)
+        pushSamples(slot, fromIndex)
+        if (fromIndex < stroke.size) {
+            penInputHandler.strokeUpdated(stroke, fromIndex, stroke.size)
+        }
+        if (penInfoCallbacksEnabled) {
+            penInputHandler.strokeUpdated(PenInfo.createFromEvent(event, pointerIndex), stroke)
+        }
+    }
+
+    private fun completeStroke(slot: PointerSlot, event: MotionEvent, pointerIndex: Int) {
+        val appendedFrom = slot.stroke.size
+        slot.stroke.addSamples(event, pointerIndex)
+        val fromIndex = splitAtHinge(slot, appendedFrom)
+        val stroke = slot.stroke
+        slot.prediction.reset()
+        pushSamples(slot, fromIndex)
+        if (slot.buffered) {
+            sampleBuffer?.offerEnd()
+        }
+        slot.pointerId = INVALID_POINTER_ID
+        penInputHandler.strokeCompleted(stroke)
+        if (penInfoCallbacksEnabled) {
+            penInputHandler.strokeCompleted(PenInfo.createFromEvent(event, pointerIndex), stroke)
+        }
+    }
+
+    /**
+     * Splits the stroke of [slot] where the samples appended from [fromIndex] on cross
+     * [hingeBounds]. The samples before the first crossing complete the stroke, the ones after
+     * each crossing start a new stroke, the last one staying active in [slot].
+     *
+     * @return index of the first sample of the active stroke that was not dispatched yet
+     */
+    private fun splitAtHinge(slot: PointerSlot, fromIndex: Int): Int {
+        val hinge = hingeBounds ?: return fromIndex
+        val stroke = slot.stroke
+        val split = findCrossing(hinge, stroke, maxOf(fromIndex, 1))
+        if (split < 0) {
+            return fromIndex
+        }
+        // the samples after the crossing wait in the spare stroke of the slot
+        moveTail(stroke, split, slot.spare)
+        pushSamples(slot, fromIndex)
+        if (fromIndex < split) {
+            penInputHandler.strokeUpdated(stroke, fromIndex, split)
+        }
+        while (true) {
+            endSplitStroke(slot)
+            // the completed stroke is free again and becomes the spare one
+            val piece = slot.spare
+            slot.spare = slot.stroke
+            val next = findCrossing(hinge, piece, 1)
+            if (next >= 0) {
+                moveTail(piece, next, slot.spare)
+            }
+            beginStroke(slot, piece, if (penInfoCallbacksEnabled) piece.getPenInfo(0) else null)
+            if (next < 0) {
+                return piece.size
+            }
+        }
+    }
+
+    /**
+     * Moves the samples of [stroke] from [fromIndex] on into [target].
+     */
+    private fun moveTail(stroke: ExtendedStroke, fromIndex: Int, target: ExtendedStroke) {
+        target.set(stroke, fromIndex, stroke.size)
+        stroke.truncate(fromIndex)
+    }
+
+    private fun endSplitStroke(slot: PointerSlot) {
+        if (slot.buffered) {
+            sampleBuffer?.offerEnd()
+        }
+        penInputHandler.strokeCompleted(slot.stroke)
+        if (penInfoCallbacksEnabled) {
+            penInputHandler.strokeCompleted(slot.stroke.getPenInfo(slot.stroke.size - 1), slot.stroke)
+        }
+    }
+
+    /**
+     * @return index of the first sample of [stroke] from [fromIndex] on that is on the other
+     * side of [hinge] than the sample before it, or -1
+     */
+    private fun findCrossing(hinge: RectF, stroke: ExtendedStroke, fromIndex: Int): Int {
+        for (i in fromIndex until stroke.size) {
+            if (sideOfHinge(hinge, stroke, i - 1) != sideOfHinge(hinge, stroke, i)) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    private fun cancelStroke(slot: PointerSlot) {
+        slot.prediction.reset()
+        if (slot.buffered) {
+            sampleBuffer?.offerCancel()
+        }
+        slot.pointerId = INVALID_POINTER_ID
+        penInputHandler.strokeCancelled(slot.stroke)
+    }
+
+    private fun cancelStrokes() {
+        for (slot in slots) {
+            if (slot.pointerId != INVALID_POINTER_ID) {
+                cancelStroke(slot)
+            }
+        }
+    }
+
+    private fun isRejected(event: MotionEvent, pointerIndex: Int): Boolean {
+        return PointerType.fromToolType(event.getToolType(pointerIndex)) in rejectedPointerTypes ||
+            (palmTouchMajor > 0f && event.getTouchMajor(pointerIndex) > palmTouchMajor)
+    }
+
+    private fun findSlot(pointerId: Int): PointerSlot? {
+        for (slot in slots) {
+            if (slot.pointerId == pointerId) {
+                return slot
+            }
+        }
+        return null
+    }
+
+    private fun pushSamples(slot: PointerSlot, fromIndex: Int) {
+        if (!slot.buffered) {
+            return
+        }
+        val buffer = sampleBuffer ?: return
+        for (i in fromIndex until slot.stroke.size) {
+            if (i == 0) {
+                if (!buffer.offer(SampleRingBuffer.STROKE_BEGIN, slot.stroke, i)) {
+                    // the queue is full, the stroke is not buffered and is drawn by the handlers
+                    slot.buffered = false
+                    return
+                }
+            } else {
+                // the samples that don't fit are dropped, the queue keeps room for the end marker
+                buffer.offer(SampleRingBuffer.STROKE_SAMPLE, slot.stroke, i)
+            }
+        }
+    }
+
+    /**
+     * Input state of one pointer, reused from stroke to stroke
+     */
+    private class PointerSlot {
+        var pointerId = INVALID_POINTER_ID
+        var stroke = ExtendedStroke()
+
+        // holds the samples following a hinge crossing while the stroke before it completes
+        var spare = ExtendedStroke()
+        val prediction = ExtendedStroke(8)
+
+        // true if the samples are pushed into the sample buffer
+        var buffered = false
+    }
+
+    companion object {
+        /**
+         * Number of pointers tracked at once, the pointers going down after that are ignored
+         */
+        const val MAX_POINTERS = 10
+
+        private const val INVALID_POINTER_ID = -1
+
+        // MotionEvent.FLAG_CANCELED, set on the ACTION_POINTER_UP of an accidental touch
+        private const val FLAG_CANCELED = 0x20
+
+        // false before the hinge, true after it, split along its long axis
+        private fun sideOfHinge(hinge: RectF, stroke: ExtendedStroke, index: Int): Boolean {
+            return if (hinge.bottom - hinge.top >= hinge.right - hinge.left) {
+                stroke.getX(index) >= (hinge.left + hinge.right) / 2
+            } else {
+                stroke.getY(index) >= (hinge.top + hinge.bottom) / 2
+            }
+        }
+
+        private fun isPrimaryButton(buttonState: Int): Boolean =
+            ((buttonState and MotionEvent.BUTTON_PRIMARY) > 0) or
+                ((buttonState and MotionEvent.BUTTON_STYLUS_PRIMARY) > 0)
+
+        private fun isSecondaryButton(buttonState: Int): Boolean =
+            ((buttonState and MotionEvent.BUTTON_SECONDARY) > 0) or
+                ((buttonState and MotionEvent.BUTTON_STYLUS_SECONDARY) > 0)
+    }
+}
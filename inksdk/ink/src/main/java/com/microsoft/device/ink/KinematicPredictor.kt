@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import kotlin.math.sqrt
+
+/**
+ * Default [InputManager.MotionPredictor] that extrapolates the stroke with the velocity and
+ * acceleration measured over its last three samples.
+ *
+ * @param predictionMillis how far ahead of the last sample the stroke is extrapolated
+ * @param sampleCount number of samples the prediction is made of
+ * @param accelerationWeight how much of the measured acceleration is applied, raw stylus data is
+ * noisy so the full acceleration tends to overshoot
+ * @param maxDistance upper bound, in pixels, for the distance between the last sample and the
+ * end of the prediction
+ */
+class KinematicPredictor(
+    var predictionMillis: Float = 16f,
+    var sampleCount: Int = 3,
+    var accelerationWeight: Float = 0.5f,
+    var maxDistance: Float = 80f
+) : InputManager.MotionPredictor {
+
+    override fun predict(stroke: InputManager.ExtendedStroke, prediction: InputManager.ExtendedStroke) {
+        val last = stroke.size - 1
+        if (last < 2 || sampleCount <= 0) {
+            return
+        }
+
+        val dt1 = (stroke.getTimestamp(last) - stroke.getTimestamp(last - 1)).toFloat()
+        val dt0 = (stroke.getTimestamp(last - 1) - stroke.getTimestamp(last - 2)).toFloat()
+        if (dt0 <= 0f || dt1 <= 0f) {
+            return
+        }
+
+        val x = stroke.getX(last)
+        val y = stroke.getY(last)
+        val vx = (x - stroke.getX(last - 1)) / dt1
+        val vy = (y - stroke.getY(last - 1)) / dt1
+        val ax = (vx - (stroke.getX(last - 1) - stroke.getX(last - 2)) / dt0) / ((dt0 + dt1) / 2) * accelerationWeight
+        val ay = (vy - (stroke.getY(last - 1) - stroke.getY(last - 2)) / dt0) / ((dt0 + dt1) / 2) * accelerationWeight
+
+        // scale the whole prediction down if it would travel further than maxDistance
+        val endX = vx * predictionMillis + ax * predictionMillis * predictionMillis / 2
+        val endY = vy * predictionMillis + ay * predictionMillis * predictionMillis / 2
+        val distance = sqrt(endX * endX + endY * endY)
+        val scale = if (distance > maxDistance) maxDistance / distance else 1f
+
+        val timestamp = stroke.getTimestamp(last)
+        for (step in 1..sampleCount) {
+            val t = predictionMillis * step / sampleCount
+            prediction.addSample(
+                stroke.getPointerType(last),
+                x + (vx * t + ax * t * t / 2) * scale,
+                y + (vy * t + ay * t * t / 2) * scale,
+                stroke.getPressure(last),
+                stroke.getOrientation(last),
+                stroke.getTilt(last),
+                timestamp + t.toLong(),
+                stroke.isPrimaryButtonPressed(last),
+                stroke.isSecondaryButtonPressed(last)
+            )
+        }
+    }
+}
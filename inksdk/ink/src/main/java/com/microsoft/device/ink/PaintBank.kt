@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+/**
+ * Small cache of the paints generated by cacheable [InkView.DynamicPaintHandler]s, keyed by
+ * handler and [InkView.DynamicPaintHandler.paintCacheKey].
+ *
+ * Consecutive samples usually share their key, so the last hit is checked first, then the
+ * entries are scanned linearly. Once full the entries are replaced round robin.
+ *
+ * @param capacity maximum number of cached paints
+ */
+internal class PaintBank<T : Any>(private val capacity: Int = DEFAULT_CAPACITY) {
+    private val owners = arrayOfNulls<Any>(capacity)
+    private val keys = LongArray(capacity)
+    private val values = arrayOfNulls<Any>(capacity)
+    private var size = 0
+    private var nextReplaced = 0
+    private var lastHit = -1
+
+    /**
+     * @return the value cached for [key] of [owner], or null if there is none
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun get(owner: Any, key: Long): T? {
+        val last = lastHit
+        if (last >= 0 && keys[last] == key && owners[last] === owner) {
+            return values[last] as T
+        }
+        for (i in 0 until size) {
+            if (keys[i] == key && owners[i] === owner) {
+                lastHit = i
+                return values[i] as T
+            }
+        }
+        return null
+    }
+
+    fun put(owner: Any, key: Long, value: T) {
+        val index = if (size < capacity) {
+            size++
+        } else {
+            nextReplaced.also { nextReplaced = (it + 1) % capacity }
+        }
+        owners[index] = owner
+        keys[index] = key
+        values[index] = value
+        lastHit = index
+    }
+
+    fun clear() {
+        owners.fill(null)
+        values.fill(null)
+        size = 0
+        nextReplaced = 0
+        lastHit = -1
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 32
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import kotlin.math.sqrt
+
+/**
+ * Offline harness that replays recorded strokes sample by sample through a
+ * [InputManager.MotionPredictor] and compares every prediction with the samples that were
+ * actually recorded afterwards.
+ */
+class PredictionEvaluator(private val predictor: InputManager.MotionPredictor) {
+
+    data class Result(
+        /**
+         * Number of predictions that could be compared with recorded samples
+         */
+        val predictionCount: Int,
+        /**
+         * Mean distance, in pixels, between the end of a prediction and the recorded position
+         * at the same time
+         */
+        val meanError: Float,
+        /**
+         * Largest distance, in pixels, between the end of a prediction and the recorded position
+         */
+        val maxError: Float,
+        /**
+         * Mean time, in milliseconds, that the end of a prediction is ahead of the last sample
+         */
+        val meanLatencySavedMillis: Float
+    )
+
+    fun evaluate(strokes: List<InputManager.ExtendedStroke>): Result {
+        val replay = InputManager.ExtendedStroke()
+        val prediction = InputManager.ExtendedStroke(8)
+        var count = 0
+        var errorSum = 0.0
+        var maxError = 0f
+        var latencySum = 0.0
+
+        for (stroke in strokes) {
+            replay.reset()
+            for (i in 0 until stroke.size) {
+                copySample(stroke, i, replay)
+                prediction.reset()
+                predictor.predict(replay, prediction)
+                if (prediction.size == 0) {
+                    continue
+                }
+
+                val end = prediction.size - 1
+                val predictedTime = prediction.getTimestamp(end)
+                val error = errorAt(stroke, i, predictedTime, prediction.getX(end), prediction.getY(end))
+                    ?: continue
+
+                count++
+                errorSum += error
+                if (error > maxError) {
+                    maxError = error
+                }
+                latencySum += predictedTime - stroke.getTimestamp(i)
+            }
+        }
+
+        return if (count == 0) {
+            Result(0, 0f, 0f, 0f)
+        } else {
+            Result(count, (errorSum / count).toFloat(), maxError, (latencySum / count).toFloat())
+        }
+    }
+
+    /**
+     * Distance between (x, y) and the recorded position at [time], interpolated between the
+     * recorded samples following [from], or null if the stroke ends before [time].
+     */
+    private fun errorAt(
+        stroke: InputManager.ExtendedStroke,
+        from: Int,
+        time: Long,
+        x: Float,
+        y: Float
+    ): Float? {
+        for (i in from + 1 until stroke.size) {
+            val t1 = stroke.getTimestamp(i)
+            if (t1 < time) {
+                continue
+            }
+            val t0 = stroke.getTimestamp(i - 1)
+            val f = if (t1 == t0) 1f else (time - t0).toFloat() / (t1 - t0)
+            val actualX = stroke.getX(i - 1) + (stroke.getX(i) - stroke.getX(i - 1)) * f
+            val actualY = stroke.getY(i - 1) + (stroke.getY(i) - stroke.getY(i - 1)) * f
+            val dx = actualX - x
+            val dy = actualY - y
+            return sqrt(dx * dx + dy * dy)
+        }
+        return null
+    }
+
+    private fun copySample(from: InputManager.ExtendedStroke, i: Int, to: InputManager.ExtendedStroke) {
+        to.addSample(
+            from.getPointerType(i),
+            from.getX(i),
+            from.getY(i),
+            from.getPressure(i),
+            from.getOrientation(i),
+            from.getTilt(i),
+            from.getTimestamp(i),
+            from.isPrimaryButtonPressed(i),
+            from.isSecondaryButtonPressed(i)
+        )
+    }
+}
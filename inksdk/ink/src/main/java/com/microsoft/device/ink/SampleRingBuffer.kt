@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Lock-free single-producer/single-consumer queue of stroke samples, used to hand input from
+ * the UI thread over to a render thread.
+ *
+ * Entries are stored in preallocated columns, so neither side allocates. The producer publishes
+ * an entry by advancing the write position after the entry is written, the consumer frees it by
+ * advancing the read position after it is read. When the queue is full new samples are dropped
+ * and counted in [droppedCount], the producer never waits.
+ *
+ * The last free entry is reserved for the marker ending the open stroke: samples, including the
+ * first one of a stroke, are only accepted while more than one entry is free. A producer keeping
+ * at most one stroke open, and not continuing a stroke whose first sample was dropped, never
+ * loses a [STROKE_END] or [STROKE_CANCEL] marker.
+ *
+ * @param capacity number of entries, rounded up to a power of two
+ */
+class SampleRingBuffer(capacity: Int = DEFAULT_CAPACITY) {
+
+    private val size = Integer.highestOneBit(maxOf(capacity, 2) - 1) shl 1
+    private val mask = size - 1
+
+    private val kinds = ByteArray(size)
+    private val xs = FloatArray(size)
+    private val ys = FloatArray(size)
+    private val pressures = FloatArray(size)
+    private val orientations = FloatArray(size)
+    private val tilts = FloatArray(size)
+    private val timestamps = LongArray(size)
+    private val states = ByteArray(size)
+
+    // next position to write, only advanced by the producer
+    private val writePosition = AtomicLong()
+
+    // next position to read, only advanced by the consumer
+    private val readPosition = AtomicLong()
+
+    private val dropped = AtomicLong()
+
+    val capacity: Int
+        get() = size
+
+    /**
+     * Number of entries dropped because the queue was full
+     */
+    val droppedCount: Long
+        get() = dropped.get()
+
+    val isEmpty: Boolean
+        get() = readPosition.get() == writePosition.get()
+
+    /**
+     * Appends sample [index] of [stroke], [kind] being [STROKE_BEGIN] for the first sample of a
+     * stroke and [STROKE_SAMPLE] otherwise. Producer side only.
+     *
+     * @return false if the queue is full, the sample is dropped then. The samples of a stroke
+     * whose [STROKE_BEGIN] was dropped should not be offered.
+     */
+    fun offer(kind: Int, stroke: InputManager.ExtendedStroke, index: Int): Boolean {
+        val position = writePosition.get()
+        // keep room for the marker ending the stroke
+        if (position - readPosition.get() >= size - MARKER_HEADROOM) {
+            dropped.incrementAndGet()
+            return false
+        }
+        val slot = (position and mask.toLong()).toInt()
+        kinds[slot] = kind.toByte()
+        xs[slot] = stroke.getX(index)
+        ys[slot] = stroke.getY(index)
+        pressures[slot] = stroke.getPressure(index)
+        orientations[slot] = stroke.getOrientation(index)
+        tilts[slot] = stroke.getTilt(index)
+        timestamps[slot] = stroke.getTimestamp(index)
+        var state = stroke.getPointerType(index).ordinal shl 2
+        if (stroke.isPrimaryButtonPressed(index)) state = state or PRIMARY_BUTTON
+        if (stroke.isSecondaryButtonPressed(index)) state = state or SECONDARY_BUTTON
+        states[slot] = state.toByte()
+        // release: the entry is visible to the consumer once the position moves
+        writePosition.lazySet(position + 1)
+        return true
+    }
+
+    /**
+     * Appends a marker ending the current stroke. Producer side only.
+     *
+     * @return false if the queue is full, which can only happen when more than one stroke is
+     * open at once
+     */
+    fun offerEnd(): Boolean = offerMarker(STROKE_END)
+
+    /**
+     * Appends a marker discarding the current stroke. Producer side only.
+     *
+     * @return false if the queue is full, which can only happen when more than one stroke is
+     * open at once
+     */
+    fun offerCancel(): Boolean = offerMarker(STROKE_CANCEL)
+
+    private fun offerMarker(kind: Int): Boolean {
+        val position = writePosition.get()
+        if (position - readPosition.get() >= size) {
+            dropped.incrementAndGet()
+            return false
+        }
+        kinds[(position and mask.toLong()).toInt()] = kind.toByte()
+        writePosition.lazySet(position + 1)
+        return true
+    }
+
+    /**
+     * Removes the oldest entry. A sample is appended to [stroke], which is reset first when the
+     * sample begins a new stroke. Consumer side only.
+     *
+     * @return the kind of the removed entry, or [EMPTY] if there was none
+     */
+    fun poll(stroke: InputManager.ExtendedStroke): Int {
+        val position = readPosition.get()
+        if (position == writePosition.get()) {
+            return EMPTY
+        }
+        val slot = (position and mask.toLong()).toInt()
+        val kind = kinds[slot].toInt()
+        if (kind == STROKE_BEGIN || kind == STROKE_SAMPLE) {
+            if (kind == STROKE_BEGIN) {
+                stroke.reset()
+            }
+            val state = states[slot].toInt()
+            stroke.addSample(
+                pointerTypes[state shr 2],
+                xs[slot],
+                ys[slot],
+                pressures[slot],
+                orientations[slot],
+                tilts[slot],
+                timestamps[slot],
+                state and PRIMARY_BUTTON != 0,
+                state and SECONDARY_BUTTON != 0
+            )
+        }
+        // the slot can be reused by the producer once the position moves
+        readPosition.lazySet(position + 1)
+        return kind
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 4096
+
+        const val EMPTY = 0
+        const val STROKE_BEGIN = 1
+        const val STROKE_SAMPLE = 2
+        const val STROKE_END = 3
+        const val STROKE_CANCEL = 4
+
+        // entries only markers may use
+        private const val MARKER_HEADROOM = 1
+
+        private const val PRIMARY_BUTTON = 1
+        private const val SECONDARY_BUTTON = 2
+        private val pointerTypes = InputManager.PointerType.values()
+    }
+}
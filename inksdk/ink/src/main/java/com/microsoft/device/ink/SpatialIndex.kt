@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import java.util.IdentityHashMap
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Uniform grid of item bounding boxes, answering which items may touch a point or a region
+ * without scanning all of them.
+ *
+ * Every item is referenced from each cell its bounds overlap. Query results are returned in
+ * insertion order, which is the order strokes were drawn in, so they can be replayed as is.
+ *
+ * @param cellSize width and height of a grid cell, in the same unit as the bounds
+ */
+internal class SpatialIndex<T : Any>(private val cellSize: Float = DEFAULT_CELL_SIZE) {
+
+    private class Entry<T>(
+        val item: T,
+        val order: Long,
+        val left: Float,
+        val top: Float,
+        val right: Float,
+        val bottom: Float
+    ) {
+        var queryStamp = 0
+    }
+
+    private val cells = HashMap<Long, ArrayList<Entry<T>>>()
+    private val entries = IdentityHashMap<T, Entry<T>>()
+    private val matches = ArrayList<Entry<T>>()
+    private var nextOrder = 0L
+    private var queryStamp = 0
+
+    // area covered by all items indexed since the last clear, queries are clamped to it
+    private var extentLeft = Float.POSITIVE_INFINITY
+    private var extentTop = Float.POSITIVE_INFINITY
+    private var extentRight = Float.NEGATIVE_INFINITY
+    private var extentBottom = Float.NEGATIVE_INFINITY
+
+    val size: Int
+        get() = entries.size
+
+    /**
+     * Adds [item] with the given bounds after all the items already indexed. Adding an item
+     * that is already indexed moves it to the new bounds.
+     */
+    fun insert(item: T, left: Float, top: Float, right: Float, bottom: Float) {
+        insert(item, left, top, right, bottom, nextOrder++)
+    }
+
+    /**
+     * Adds [item] with the given bounds at position [order] in the insertion order, as
+     * returned by [orderOf].
+     */
+    fun insert(item: T, left: Float, top: Float, right: Float, bottom: Float, order: Long) {
+        remove(item)
+        if (right < left || bottom < top) {
+            return
+        }
+        val entry = Entry(item, order, left, top, right, bottom)
+        entries[item] = entry
+        extentLeft = min(extentLeft, left)
+        extentTop = min(extentTop, top)
+        extentRight = max(extentRight, right)
+        extentBottom = max(extentBottom, bottom)
+        forEachCell(left, top, right, bottom) { key ->
+            cells.getOrPut(key) { ArrayList(INITIAL_CELL_CAPACITY) }.add(entry)
+        }
+        if (order >= nextOrder) {
+            nextOrder = order + 1
+        }
+    }
+
+    /**
+     * @return the position of [item] in the insertion order, or -1 if it is not indexed
+     */
+    fun orderOf(item: T): Long = entries[item]?.order ?: -1
+
+    /**
+     * @return false if [item] is not indexed
+     */
+    fun remove(item: T): Boolean {
+        val entry = entries.remove(item) ?: return false
+        forEachCell(entry.left, entry.top, entry.right, entry.bottom) { key ->
+            cells[key]?.let {
+                it.remove(entry)
+                if (it.isEmpty()) {
+                    cells.remove(key)
+                }
+            }
+        }
+        return true
+    }
+
+    fun clear() {
+        cells.clear()
+        entries.clear()
+        nextOrder = 0
+        extentLeft = Float.POSITIVE_INFINITY
+        extentTop = Float.POSITIVE_INFINITY
+        extentRight = Float.NEGATIVE_INFINITY
+        extentBottom = Float.NEGATIVE_INFINITY
+    }
+
+    /**
+     * Adds the items whose bounds intersect the given region to [out], in insertion order.
+     *
+     * @return number of items added
+     */
+    fun query(left: Float, top: Float, right: Float, bottom: Float, out: MutableList<T>): Int {
+        val queryLeft = max(left, extentLeft)
+        val queryTop = max(top, extentTop)
+        val queryRight = min(right, extentRight)
+        val queryBottom = min(bottom, extentBottom)
+        if (queryRight < queryLeft || queryBottom < queryTop || entries.isEmpty()) {
+            return 0
+        }
+        val stamp = ++queryStamp
+        matches.clear()
+        forEachCell(queryLeft, queryTop, queryRight, queryBottom) { key ->
+            val cell = cells[key] ?: return@forEachCell
+            for (i in cell.indices) {
+                val entry = cell[i]
+                if (entry.queryStamp != stamp &&
+                    entry.left <= right && entry.right >= left &&
+                    entry.top <= bottom && entry.bottom >= top
+                ) {
+                    entry.queryStamp = stamp
+                    matches.add(entry)
+                }
+            }
+        }
+        matches.sortBy { it.order }
+        for (i in matches.indices) {
+            out.add(matches[i].item)
+        }
+        val count = matches.size
+        matches.clear()
+        return count
+    }
+
+    /**
+     * Adds the items whose bounds contain the point to [out], in insertion order.
+     *
+     * @return number of items added
+     */
+    fun query(x: Float, y: Float, out: MutableList<T>): Int = query(x, y, x, y, out)
+
+    private inline fun forEachCell(left: Float, top: Float, right: Float, bottom: Float, action: (Long) -> Unit) {
+        val firstColumn = floor(left / cellSize).toInt()
+        val lastColumn = floor(right / cellSize).toInt()
+        val firstRow = floor(top / cellSize).toInt()
+        val lastRow = floor(bottom / cellSize).toInt()
+        for (row in firstRow..lastRow) {
+            for (column in firstColumn..lastColumn) {
+                action((column.toLong() shl 32) or (row.toLong() and 0xffffffffL))
+            }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_CELL_SIZE = 256f
+        private const val INITIAL_CELL_CAPACITY = 4
+    }
+}
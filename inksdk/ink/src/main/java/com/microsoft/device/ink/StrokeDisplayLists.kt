@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Picture
+import android.graphics.Rect
+import android.graphics.RectF
+import kotlin.math.floor
+import kotlin.math.max
+
+/**
+ * Display lists of the committed strokes, one [Picture] per square bucket of the view.
+ *
+ * Drawing the committed ink of a region again, after a resize, a change of the screens, an undo
+ * or an erase, replays the pictures of the buckets the region touches instead of rebuilding
+ * every stroke from its samples. A bucket is recorded the first time it is drawn, and dropped
+ * when a stroke touching it is added or removed. At most [maxBuckets] buckets are kept, the
+ * least recently drawn ones are dropped first and recorded again when needed.
+ *
+ * @param bucketSize width and height of a bucket in pixels
+ */
+internal class StrokeDisplayLists(private val bucketSize: Int = DEFAULT_BUCKET_SIZE) {
+
+    /**
+     * [picture] of a bucket, drawing [inkBounds] and erasing [eraseBounds], both clipped to the
+     * bucket
+     */
+    private class Bucket(val picture: Picture, val inkBounds: RectF, val eraseBounds: RectF)
+
+    // in access order, the eldest entry is the least recently drawn bucket
+    private val buckets = object : LinkedHashMap<Long, Bucket>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Bucket>?): Boolean = size > maxBuckets
+    }
+    private val results = ArrayList<InkView.Brush>()
+    private val clipRect = Rect()
+    private var recordedSegments = 0
+
+    /**
+     * Maximum number of recorded buckets
+     */
+    var maxBuckets = DEFAULT_MAX_BUCKETS
+        set(value) {
+            require(value >= 0) { "Invalid bucket count $value" }
+            field = value
+            trim()
+        }
+
+    /**
+     * Number of recorded buckets
+     */
+    val size: Int
+        get() = buckets.size
+
+    /**
+     * Drops the display lists of the buckets touching [bounds].
+     */
+    fun invalidate(bounds: RectF) {
+        if (bounds.isEmpty || buckets.isEmpty()) {
+            return
+        }
+        val firstColumn = floor(bounds.left / bucketSize).toInt()
+        val lastColumn = floor(bounds.right / bucketSize).toInt()
+        val firstRow = floor(bounds.top / bucketSize).toInt()
+        val lastRow = floor(bounds.bottom / bucketSize).toInt()
+        for (row in firstRow..lastRow) {
+            for (column in firstColumn..lastColumn) {
+                buckets.remove(key(column, row))
+            }
+        }
+    }
+
+    fun clear() {
+        buckets.clear()
+    }
+
+    private fun trim() {
+        val iterator = buckets.values.iterator()
+        while (buckets.size > maxBuckets && iterator.hasNext()) {
+            iterator.next()
+            iterator.remove()
+        }
+    }
+
+    /**
+     * Draws the strokes of [index] into the part of [store] inside [region], which should not
+     * hold any ink. Missing display lists are recorded with [renderer] first.
+     *
+     * @return number of curve segments recorded
+     */
+    fun draw(
+        store: InkTileStore,
+        region: Rect,
+        index: SpatialIndex<InkView.Brush>,
+        renderer: StrokeRenderer,
+        pressureEnabled: Boolean
+    ): Int {
+        if (region.isEmpty) {
+            return 0
+        }
+        recordedSegments = 0
+        val firstColumn = max(region.left, 0) / bucketSize
+        val lastColumn = (region.right - 1) / bucketSize
+        val firstRow = max(region.top, 0) / bucketSize
+        val lastRow = (region.bottom - 1) / bucketSize
+        for (row in firstRow..lastRow) {
+            for (column in firstColumn..lastColumn) {
+                val key = key(column, row)
+                val bucket = buckets[key] ?: record(column, row, index, renderer, pressureEnabled).also {
+                    buckets[key] = it
+                }
+                if (bucket.inkBounds.isEmpty && bucket.eraseBounds.isEmpty) {
+                    continue
+                }
+                val left = column * bucketSize
+                val top = row * bucketSize
+                clipRect.set(left, top, left + bucketSize, top + bucketSize)
+                if (!clipRect.intersect(region)) {
+                    continue
+                }
+                val canvas = store.beginRecording()
+                canvas.save()
+                canvas.translate(left.toFloat(), top.toFloat())
+                canvas.drawPicture(bucket.picture)
+                canvas.restore()
+                store.endRecording(bucket.inkBounds, bucket.eraseBounds, clipRect)
+            }
+        }
+        return recordedSegments
+    }
+
+    /**
+     * Records the strokes touching a bucket into a picture of the bucket size.
+     */
+    private fun record(
+        column: Int,
+        row: Int,
+        index: SpatialIndex<InkView.Brush>,
+        renderer: StrokeRenderer,
+        pressureEnabled: Boolean
+    ): Bucket {
+        val left = (column * bucketSize).toFloat()
+        val top = (row * bucketSize).toFloat()
+        val right = left + bucketSize
+        val bottom = top + bucketSize
+        val inkBounds = RectF()
+        val eraseBounds = RectF()
+
+        val picture = Picture()
+        val canvas = picture.beginRecording(bucketSize, bucketSize)
+        canvas.translate(-left, -top)
+        canvas.clipRect(left, top, right, bottom)
+        results.clear()
+        index.query(left, top, right, bottom, results)
+        for (i in results.indices) {
+            val brush = results[i]
+            brush.stroke.lastPointReferenced = 0
+            renderer.render(canvas, canvas, brush, pressureEnabled, final = true)
+            inkBounds.union(renderer.strokeBounds)
+            eraseBounds.union(renderer.eraserBounds)
+            recordedSegments += renderer.segmentCount
+        }
+        results.clear()
+        picture.endRecording()
+
+        if (!inkBounds.intersect(left, top, right, bottom)) {
+            inkBounds.setEmpty()
+        }
+        if (!eraseBounds.intersect(left, top, right, bottom)) {
+            eraseBounds.setEmpty()
+        }
+        return Bucket(picture, inkBounds, eraseBounds)
+    }
+
+    companion object {
+        const val DEFAULT_BUCKET_SIZE = 512
+
+        // a 4096 x 4096 pixel area with the default bucket size
+        const val DEFAULT_MAX_BUCKETS = 64
+
+        private fun key(column: Int, row: Int): Long = (column.toLong() shl 32) or (row.toLong() and 0xffffffffL)
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Path
+import android.graphics.PorterDuff
+import android.graphics.PorterDuffXfermode
+import android.graphics.RectF
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * Rasterizes strokes incrementally as smooth curves.
+ *
+ * The samples are joined with quadratic Bézier segments that use each sample as control point
+ * and end halfway to the next sample, so a segment can only be emitted once the following sample
+ * is known. Consecutive segments sharing the same paint are batched into a single [Path] and
+ * drawn with one call.
+ *
+ * With pressure enabled and no dynamic paint handler, the stroke is tessellated into a variable
+ * width [StrokeMesh] instead and filled with one call per batch. The mesh of a complete stroke is
+ * cached on its [InkView.Brush], so replaying it skips the geometry step.
+ *
+ * [InputManager.ExtendedStroke.lastPointReferenced] holds the index of the last control point
+ * that was emitted, the curve continues from the midpoint between that sample and the next one.
+ *
+ * @param density display density used to convert stroke widths from dp to pixels
+ */
+internal class StrokeRenderer(private val density: Float) {
+
+    private val path = Path()
+    private val strokePaint = Paint()
+    private val clearPaint = Paint()
+    private val fillPaint = Paint()
+    private val tessellator = StrokeTessellator(density)
+    private val scratchMesh = StrokeMesh()
+    private val paintBank = PaintBank<Paint>()
+
+    /**
+     * Bounds of the ink drawn by the last [render] call, empty if nothing was drawn
+     */
+    val strokeBounds = RectF()
+
+    /**
+     * Bounds of the ink erased by the last [render] call, empty if nothing was erased
+     */
+    val eraserBounds = RectF()
+
+    /**
+     * Number of curve segments drawn by the last [render] call
+     */
+    var segmentCount = 0
+        private set
+
+    /**
+     * Color of the last paint produced by a [InkView.DynamicPaintHandler], if any
+     */
+    var lastDynamicColor: Int? = null
+        private set
+
+    init {
+        strokePaint.isAntiAlias = true
+        strokePaint.style = Paint.Style.STROKE
+        strokePaint.strokeJoin = Paint.Join.ROUND
+        strokePaint.strokeCap = Paint.Cap.ROUND
+
+        clearPaint.xfermode = PorterDuffXfermode(PorterDuff.Mode.CLEAR)
+
+        fillPaint.isAntiAlias = true
+        fillPaint.style = Paint.Style.FILL
+    }
+
+    /**
+     * Draws the samples of [brush] that were not rendered yet.
+     *
+     * @param canvas canvas receiving the ink
+     * @param eraserCanvas canvas the eraser samples are applied to
+     * @param final true if the stroke is complete, which also draws the segment ending on its
+     * last sample
+     */
+    fun render(
+        canvas: Canvas,
+        eraserCanvas: Canvas,
+        brush: InkView.Brush,
+        pressureEnabled: Boolean,
+        final: Boolean
+    ) {
+        val stroke = brush.stroke
+        val first = stroke.lastPointReferenced
+        val lastControl = draw(canvas, eraserCanvas, brush, pressureEnabled, first, final, cacheMesh = true)
+        if (lastControl > first) {
+            stroke.lastPointReferenced = lastControl
+        }
+    }
+
+    /**
+     * Draws the complete [brush] from its first sample without changing its render state or
+     * caching its mesh, so renderers on several threads can draw the same brush at once.
+     */
+    fun renderComplete(canvas: Canvas, eraserCanvas: Canvas, brush: InkView.Brush, pressureEnabled: Boolean) {
+        draw(canvas, eraserCanvas, brush, pressureEnabled, 0, final = true, cacheMesh = false)
+    }
+
+    /**
+     * Draws the segments of [brush] following control point [first].
+     *
+     * @return the last control point drawn
+     */
+    private fun draw(
+        canvas: Canvas,
+        eraserCanvas: Canvas,
+        brush: InkView.Brush,
+        pressureEnabled: Boolean,
+        first: Int,
+        final: Boolean,
+        cacheMesh: Boolean
+    ): Int {
+        strokeBounds.setEmpty()
+        eraserBounds.setEmpty()
+        lastDynamicColor = null
+        segmentCount = 0
+
+        val stroke = brush.stroke
+        val size = stroke.size
+        if (size < minPointsForValidStroke) {
+            return first
+        }
+
+        val lastControl = if (final) size - 1 else size - 2
+        segmentCount = max(lastControl - first, 0)
+
+        // the mesh only draws ink, ranges with eraser samples take the curve path
+        if (pressureEnabled && brush.paintHandler == null && !hasEraserSample(stroke, first, lastControl)) {
+            renderMesh(canvas, brush, first, lastControl, final, cacheMesh)
+            return lastControl
+        }
+
+        // density conversion is hoisted out of the segment loop
+        val minWidth = brush.strokeWidth * density
+        val widthRange = (brush.strokeWidthMax - brush.strokeWidth) * density
+        strokePaint.color = brush.color
+        strokePaint.strokeWidth = minWidth
+
+        var startX = curveStartX(stroke, first)
+        var startY = curveStartY(stroke, first)
+        var batchPaint: Paint? = null
+
+        for (i in first + 1..lastControl) {
+            val x = stroke.getX(i)
+            val y = stroke.getY(i)
+            val isLast = i == size - 1
+            val endX = if (isLast) x else (x + stroke.getX(i + 1)) / 2
+            val endY = if (isLast) y else (y + stroke.getY(i + 1)) / 2
+
+            if (stroke.getPointerType(i) == InputManager.PointerType.PEN_ERASER) {
+                flush(canvas, batchPaint)
+                batchPaint = null
+                eraserCanvas.drawCircle(x, y, eraserRadius, clearPaint)
+                union(eraserBounds, x, y, x, y, eraserRadius)
+            } else {
+                val paint = when {
+                    brush.paintHandler != null -> {
+                        dynamicPaint(brush.paintHandler, stroke, i).also {
+                            lastDynamicColor = it.color
+                        }
+                    }
+                    pressureEnabled -> {
+                        val width = quantizeWidth(minWidth + widthRange * stroke.getPressure(i))
+                        if (batchPaint === strokePaint && strokePaint.strokeWidth != width) {
+                            flush(canvas, batchPaint)
+                            batchPaint = null
+                        }
+                        strokePaint.strokeWidth = width
+                        strokePaint
+                    }
+                    else -> strokePaint
+                }
+
+                if (paint !== batchPaint) {
+                    flush(canvas, batchPaint)
+                    batchPaint = paint
+                }
+                if (path.isEmpty) {
+                    path.moveTo(startX, startY)
+                }
+                if (isLast) {
+                    path.lineTo(x, y)
+                } else {
+                    path.quadTo(x, y, endX, endY)
+                }
+                val halfWidth = paint.strokeWidth / 2
+                union(strokeBounds, min(startX, x), min(startY, y), max(startX, x), max(startY, y), halfWidth)
+                union(strokeBounds, endX, endY, endX, endY, halfWidth)
+            }
+
+            startX = endX
+            startY = endY
+        }
+        flush(canvas, batchPaint)
+        return lastControl
+    }
+
+    /**
+     * Computes an upper bound of the area covered by [brush] into [out], empty if the stroke
+     * has no samples.
+     */
+    fun computeBounds(brush: InkView.Brush, out: RectF) {
+        val stroke = brush.stroke
+        if (stroke.size == 0) {
+            out.setEmpty()
+            return
+        }
+        val pad = max(eraserRadius, maxHalfWidth(brush)) + antiAliasPadding
+        out.set(stroke.minX - pad, stroke.minY - pad, stroke.maxX + pad, stroke.maxY + pad)
+    }
+
+    /**
+     * Half of the widest line [brush] can draw, in pixels.
+     */
+    fun maxHalfWidth(brush: InkView.Brush): Float {
+        return max(brush.strokeWidth, brush.strokeWidthMax) * density * (1 + StrokeTessellator.TILT_WIDTH_FACTOR) / 2
+    }
+
+    private fun hasEraserSample(stroke: InputManager.ExtendedStroke, first: Int, last: Int): Boolean {
+        for (i in first..last) {
+            if (stroke.getPointerType(i) == InputManager.PointerType.PEN_ERASER) {
+                return true
+            }
+        }
+        return false
+    }
+
+    private fun renderMesh(
+        canvas: Canvas,
+        brush: InkView.Brush,
+        first: Int,
+        lastControl: Int,
+        final: Boolean,
+        cacheMesh: Boolean
+    ) {
+        val cached = brush.mesh
+        val mesh = if (first == 0 && final && cached != null) {
+            cached
+        } else if (first == 0 && final && cacheMesh) {
+            StrokeMesh().also {
+                tessellator.tessellate(brush, 0, lastControl, it)
+                brush.mesh = it
+            }
+        } else {
+            tessellator.tessellate(brush, first, lastControl, scratchMesh)
+            scratchMesh
+        }
+        if (mesh.vertexCount == 0) {
+            return
+        }
+
+        fillPaint.color = brush.color
+        canvas.drawPath(mesh.outline, fillPaint)
+        strokeBounds.set(mesh.bounds)
+    }
+
+    /**
+     * Paint of sample [index], taken from [paintBank] when [handler] is cacheable. Segments
+     * sharing a cached paint are batched into one path.
+     */
+    private fun dynamicPaint(handler: InkView.DynamicPaintHandler, stroke: InputManager.ExtendedStroke, index: Int): Paint {
+        val key = handler.paintCacheKey(stroke, index)
+        if (key == InkView.DynamicPaintHandler.NO_CACHE_KEY) {
+            return handler.generatePaintFromPenInfo(stroke.getPenInfo(index))
+        }
+        return paintBank.get(handler, key)
+            ?: handler.generatePaintFromPenInfo(stroke.getPenInfo(index)).also { paintBank.put(handler, key, it) }
+    }
+
+    private fun flush(canvas: Canvas, paint: Paint?) {
+        if (paint != null && !path.isEmpty) {
+            canvas.drawPath(path, paint)
+        }
+        path.rewind()
+    }
+
+    private fun union(rect: RectF, left: Float, top: Float, right: Float, bottom: Float, pad: Float) {
+        rect.union(left - pad, top - pad, right + pad, bottom + pad)
+    }
+
+    companion object {
+        /**
+         * X coordinate the curve continues from after control point [index] was emitted.
+         */
+        fun curveStartX(stroke: InputManager.ExtendedStroke, index: Int): Float {
+            return if (index == 0 || index >= stroke.size - 1) {
+                stroke.getX(index)
+            } else {
+                (stroke.getX(index) + stroke.getX(index + 1)) / 2
+            }
+        }
+
+        /**
+         * Y coordinate the curve continues from after control point [index] was emitted.
+         */
+        fun curveStartY(stroke: InputManager.ExtendedStroke, index: Int): Float {
+            return if (index == 0 || index >= stroke.size - 1) {
+                stroke.getY(index)
+            } else {
+                (stroke.getY(index) + stroke.getY(index + 1)) / 2
+            }
+        }
+
+        // pressure widths are snapped to quarter pixels so neighbouring segments share a batch
+        private const val WIDTH_STEPS_PER_PIXEL = 4f
+
+        private fun quantizeWidth(width: Float): Float {
+            return (width * WIDTH_STEPS_PER_PIXEL).roundToInt() / WIDTH_STEPS_PER_PIXEL
+        }
+    }
+}
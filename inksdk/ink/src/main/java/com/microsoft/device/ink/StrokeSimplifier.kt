@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import kotlin.math.abs
+import kotlin.math.sqrt
+
+/**
+ * Reduces the samples of a stroke with the Ramer–Douglas–Peucker algorithm.
+ *
+ * A sample is dropped when the simplified stroke passes within [tolerance] pixels of it and
+ * the pressure interpolated along the simplified stroke is within [pressureTolerance] of its
+ * pressure, so pressure changes on straight lines are kept. The first and last samples, and the
+ * samples where the pointer type or the buttons change, are always kept.
+ *
+ * @param tolerance maximum distance in pixels between a dropped sample and the simplified stroke
+ * @param pressureTolerance maximum pressure difference between a dropped sample and the
+ * simplified stroke
+ */
+class StrokeSimplifier(
+    val tolerance: Float = 0.5f,
+    val pressureTolerance: Float = 0.05f
+) {
+    private var keep = BooleanArray(0)
+    private var stack = IntArray(0)
+
+    /**
+     * Returns a new stroke holding the samples of [stroke] that are needed to stay within the
+     * tolerances.
+     */
+    fun simplify(stroke: InputManager.ExtendedStroke): InputManager.ExtendedStroke {
+        val size = stroke.size
+        if (size <= 2) {
+            return stroke.copy()
+        }
+        if (keep.size < size) {
+            keep = BooleanArray(size)
+            stack = IntArray(size * 2)
+        }
+        keep.fill(false, 0, size)
+        keep[0] = true
+        keep[size - 1] = true
+
+        // simplify each run of samples sharing the same pointer type and buttons on its own
+        var runStart = 0
+        for (i in 0 until size - 1) {
+            if (!sameState(stroke, i, i + 1)) {
+                keep[i] = true
+                keep[i + 1] = true
+                simplifyRange(stroke, runStart, i)
+                runStart = i + 1
+            }
+        }
+        simplifyRange(stroke, runStart, size - 1)
+
+        var count = 0
+        for (i in 0 until size) {
+            if (keep[i]) count++
+        }
+        val result = InputManager.ExtendedStroke(count)
+        for (i in 0 until size) {
+            if (keep[i]) {
+                result.addSample(
+                    stroke.getPointerType(i),
+                    stroke.getX(i),
+                    stroke.getY(i),
+                    stroke.getPressure(i),
+                    stroke.getOrientation(i),
+                    stroke.getTilt(i),
+                    stroke.getTimestamp(i),
+                    stroke.isPrimaryButtonPressed(i),
+                    stroke.isSecondaryButtonPressed(i)
+                )
+            }
+        }
+        return result
+    }
+
+    /**
+     * Marks the samples to keep between [first] and [last], which are kept already. Uses an
+     * explicit stack so long strokes can't overflow the call stack.
+     */
+    private fun simplifyRange(stroke: InputManager.ExtendedStroke, first: Int, last: Int) {
+        var top = 0
+        stack[top++] = first
+        stack[top++] = last
+        while (top > 0) {
+            val end = stack[--top]
+            val start = stack[--top]
+            if (end - start < 2) {
+                continue
+            }
+
+            val ax = stroke.getX(start)
+            val ay = stroke.getY(start)
+            val dx = stroke.getX(end) - ax
+            val dy = stroke.getY(end) - ay
+            val length = sqrt(dx * dx + dy * dy)
+            val startPressure = stroke.getPressure(start)
+            val pressureRange = stroke.getPressure(end) - startPressure
+
+            // largest error relative to the tolerances, a sample is needed above 1
+            var maxError = 1f
+            var split = -1
+            for (i in start + 1 until end) {
+                val px = stroke.getX(i) - ax
+                val py = stroke.getY(i) - ay
+                val distance = if (length > 0f) abs(px * dy - py * dx) / length else sqrt(px * px + py * py)
+                val t = (i - start).toFloat() / (end - start)
+                val pressureError = abs(stroke.getPressure(i) - (startPressure + pressureRange * t))
+                val error = maxOf(distance / tolerance, pressureError / pressureTolerance)
+                if (error > maxError) {
+                    maxError = error
+                    split = i
+                }
+            }
+
+            if (split >= 0) {
+                keep[split] = true
+                stack[top++] = start
+                stack[top++] = split
+                stack[top++] = split
+                stack[top++] = end
+            }
+        }
+    }
+
+    private fun sameState(stroke: InputManager.ExtendedStroke, a: Int, b: Int): Boolean {
+        return stroke.getPointerType(a) == stroke.getPointerType(b) &&
+            stroke.isPrimaryButtonPressed(a) == stroke.isPrimaryButtonPressed(b) &&
+            stroke.isSecondaryButtonPressed(a) == stroke.isSecondaryButtonPressed(b)
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Path
+import android.graphics.RectF
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * Variable width geometry of a stroke, or of a range of it.
+ *
+ * [vertices] holds a triangle strip as interleaved x, y pairs alternating between the left and
+ * the right edge of the stroke. [outline] is the same geometry as a closed, filled [Path] with
+ * round caps at both ends, which is what gets drawn.
+ */
+internal class StrokeMesh {
+    var vertices = FloatArray(INITIAL_VERTICES * 2)
+        private set
+
+    /**
+     * Number of vertices in [vertices], two per centerline point
+     */
+    var vertexCount = 0
+        private set
+
+    val outline = Path()
+    val bounds = RectF()
+
+    internal fun reset() {
+        vertexCount = 0
+        outline.rewind()
+        bounds.setEmpty()
+    }
+
+    internal fun addPair(leftX: Float, leftY: Float, rightX: Float, rightY: Float) {
+        if ((vertexCount + 2) * 2 > vertices.size) {
+            vertices = vertices.copyOf(vertices.size * 2)
+        }
+        val offset = vertexCount * 2
+        vertices[offset] = leftX
+        vertices[offset + 1] = leftY
+        vertices[offset + 2] = rightX
+        vertices[offset + 3] = rightY
+        vertexCount += 2
+    }
+
+    companion object {
+        private const val INITIAL_VERTICES = 128
+    }
+}
+
+/**
+ * Turns the samples of a stroke into a [StrokeMesh] whose width follows the pressure and tilt of
+ * every sample.
+ *
+ * The centerline follows the same quadratic curve as [StrokeRenderer], flattened into
+ * [CURVE_STEPS] points per segment.
+ *
+ * @param density display density used to convert stroke widths from dp to pixels
+ */
+internal class StrokeTessellator(private val density: Float) {
+
+    // flattened centerline: x, y and radius per point
+    private var centerline = FloatArray(INITIAL_POINTS * 3)
+    private var pointCount = 0
+
+    /**
+     * Tessellates the curve of [brush] starting at control point [first] up to control
+     * point [lastControl] into [mesh].
+     */
+    fun tessellate(brush: InkView.Brush, first: Int, lastControl: Int, mesh: StrokeMesh) {
+        mesh.reset()
+        pointCount = 0
+        val stroke = brush.stroke
+        if (lastControl <= first) {
+            return
+        }
+
+        val minWidth = brush.strokeWidth * density
+        val widthRange = (brush.strokeWidthMax - brush.strokeWidth) * density
+
+        var startX = StrokeRenderer.curveStartX(stroke, first)
+        var startY = StrokeRenderer.curveStartY(stroke, first)
+        var startRadius = if (first == 0) {
+            radius(stroke, 0, minWidth, widthRange)
+        } else {
+            (radius(stroke, first, minWidth, widthRange) + radius(stroke, first + 1, minWidth, widthRange)) / 2
+        }
+        addPoint(startX, startY, startRadius)
+
+        for (i in first + 1..lastControl) {
+            val x = stroke.getX(i)
+            val y = stroke.getY(i)
+            val isLast = i == stroke.size - 1
+            val endX = if (isLast) x else (x + stroke.getX(i + 1)) / 2
+            val endY = if (isLast) y else (y + stroke.getY(i + 1)) / 2
+            val endRadius = if (isLast) {
+                radius(stroke, i, minWidth, widthRange)
+            } else {
+                (radius(stroke, i, minWidth, widthRange) + radius(stroke, i + 1, minWidth, widthRange)) / 2
+            }
+
+            for (step in 1..CURVE_STEPS) {
+                val t = step.toFloat() / CURVE_STEPS
+                val u = 1 - t
+                val px: Float
+                val py: Float
+                if (isLast) {
+                    px = startX + (x - startX) * t
+                    py = startY + (y - startY) * t
+                } else {
+                    px = u * u * startX + 2 * u * t * x + t * t * endX
+                    py = u * u * startY + 2 * u * t * y + t * t * endY
+                }
+                addPoint(px, py, startRadius + (endRadius - startRadius) * t)
+            }
+
+            startX = endX
+            startY = endY
+            startRadius = endRadius
+        }
+
+        buildMesh(mesh)
+    }
+
+    private fun buildMesh(mesh: StrokeMesh) {
+        var normalX = 0f
+        var normalY = 1f
+        val outline = mesh.outline
+
+        for (j in 0 until pointCount) {
+            val prev = if (j == 0) 0 else j - 1
+            val next = if (j == pointCount - 1) j else j + 1
+            val dx = centerline[next * 3] - centerline[prev * 3]
+            val dy = centerline[next * 3 + 1] - centerline[prev * 3 + 1]
+            val length = sqrt(dx * dx + dy * dy)
+            // keep the previous normal on repeated points
+            if (length > 0f) {
+                normalX = -dy / length
+                normalY = dx / length
+            }
+            val x = centerline[j * 3]
+            val y = centerline[j * 3 + 1]
+            val r = centerline[j * 3 + 2]
+            mesh.addPair(x + normalX * r, y + normalY * r, x - normalX * r, y - normalY * r)
+            mesh.bounds.union(x - r, y - r, x + r, y + r)
+        }
+
+        // left edge forward, right edge backwards
+        val vertices = mesh.vertices
+        outline.moveTo(vertices[0], vertices[1])
+        for (v in 2 until mesh.vertexCount step 2) {
+            outline.lineTo(vertices[v * 2], vertices[v * 2 + 1])
+        }
+        var v = mesh.vertexCount - 1
+        while (v > 0) {
+            outline.lineTo(vertices[v * 2], vertices[v * 2 + 1])
+            v -= 2
+        }
+        outline.close()
+
+        // round caps, which also cover the joints between incrementally drawn ranges
+        val last = (pointCount - 1) * 3
+        outline.addCircle(centerline[0], centerline[1], centerline[2], CAP_DIRECTION)
+        outline.addCircle(centerline[last], centerline[last + 1], centerline[last + 2], CAP_DIRECTION)
+    }
+
+    private fun addPoint(x: Float, y: Float, radius: Float) {
+        if ((pointCount + 1) * 3 > centerline.size) {
+            centerline = centerline.copyOf(centerline.size * 2)
+        }
+        centerline[pointCount * 3] = x
+        centerline[pointCount * 3 + 1] = y
+        centerline[pointCount * 3 + 2] = radius
+        pointCount++
+    }
+
+    /**
+     * Half of the width at sample [index], tilting the pen widens the stroke like the side of a
+     * pencil lead.
+     */
+    private fun radius(stroke: InputManager.ExtendedStroke, index: Int, minWidth: Float, widthRange: Float): Float {
+        val width = minWidth + widthRange * stroke.getPressure(index)
+        return width * (1 + TILT_WIDTH_FACTOR * sin(stroke.getTilt(index))) / 2
+    }
+
+    companion object {
+        const val CURVE_STEPS = 4
+        private const val INITIAL_POINTS = 256
+        const val TILT_WIDTH_FACTOR = 0.5f
+
+        /**
+         * Direction of the caps, the winding of the body, so that under the default winding fill
+         * the overlap of a cap and the body adds up instead of cancelling out
+         */
+        val CAP_DIRECTION = Path.Direction.CCW
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+/**
+ * Removes the samples and segments of a stroke that are covered by an eraser moving along a
+ * segment.
+ */
+internal object VectorEraser {
+
+    /**
+     * Finds the samples of [stroke] within [radius] of the segment from ([startX], [startY]) to
+     * ([endX], [endY]), and the segments between two samples that the eraser crosses without
+     * reaching either sample, which happens for fast or simplified strokes.
+     *
+     * [damage] receives the bounds of the samples whose curve changes as left, top, right,
+     * bottom: the erased samples and cut segments, their direct neighbours and the runs that
+     * became too short to be a stroke. It is left untouched if nothing is erased.
+     *
+     * @return null if no sample is erased and no segment cut, otherwise the ranges of samples
+     * that remain, each holding at least [minPointsForValidStroke] samples
+     */
+    fun erase(
+        stroke: InputManager.ExtendedStroke,
+        startX: Float,
+        startY: Float,
+        endX: Float,
+        endY: Float,
+        radius: Float,
+        damage: FloatArray
+    ): List<IntRange>? {
+        val size = stroke.size
+        val radiusSquared = radius * radius
+        var runs: ArrayList<IntRange>? = null
+        var runStart = 0
+        var hit = size > 0 &&
+            pointDistanceSquared(stroke.getX(0), stroke.getY(0), startX, startY, endX, endY) <= radiusSquared
+
+        for (i in 0 until size) {
+            val nextHit = i + 1 < size &&
+                pointDistanceSquared(stroke.getX(i + 1), stroke.getY(i + 1), startX, startY, endX, endY) <= radiusSquared
+            val cut = !hit && !nextHit && i + 1 < size &&
+                segmentDistanceSquared(
+                    stroke.getX(i),
+                    stroke.getY(i),
+                    stroke.getX(i + 1),
+                    stroke.getY(i + 1),
+                    startX,
+                    startY,
+                    endX,
+                    endY
+                ) <= radiusSquared
+            if (hit || cut) {
+                if (runs == null) {
+                    runs = ArrayList()
+                    damage[0] = Float.POSITIVE_INFINITY
+                    damage[1] = Float.POSITIVE_INFINITY
+                    damage[2] = Float.NEGATIVE_INFINITY
+                    damage[3] = Float.NEGATIVE_INFINITY
+                }
+                if (hit) {
+                    addRun(stroke, runStart, i, runs, damage)
+                    addBounds(stroke, maxOf(i - 1, 0), minOf(i + 1, size - 1), damage)
+                } else {
+                    // keep both samples, drop the segment between them
+                    addRun(stroke, runStart, i + 1, runs, damage)
+                    addBounds(stroke, maxOf(i - 1, 0), minOf(i + 2, size - 1), damage)
+                }
+                runStart = i + 1
+            }
+            hit = nextHit
+        }
+
+        if (runs != null) {
+            addRun(stroke, runStart, size, runs, damage)
+        }
+        return runs
+    }
+
+    private fun addRun(
+        stroke: InputManager.ExtendedStroke,
+        fromIndex: Int,
+        toIndex: Int,
+        runs: MutableList<IntRange>,
+        damage: FloatArray
+    ) {
+        if (toIndex - fromIndex >= minPointsForValidStroke) {
+            runs.add(fromIndex until toIndex)
+        } else if (toIndex > fromIndex) {
+            // too short to draw, its ink goes away with the erased samples
+            addBounds(stroke, fromIndex, toIndex - 1, damage)
+        }
+    }
+
+    private fun addBounds(stroke: InputManager.ExtendedStroke, fromIndex: Int, toIndex: Int, damage: FloatArray) {
+        for (i in fromIndex..toIndex) {
+            val x = stroke.getX(i)
+            val y = stroke.getY(i)
+            if (x < damage[0]) damage[0] = x
+            if (y < damage[1]) damage[1] = y
+            if (x > damage[2]) damage[2] = x
+            if (y > damage[3]) damage[3] = y
+        }
+    }
+
+    /**
+     * Squared distance from point ([x], [y]) to the segment from ([ax], [ay]) to ([bx], [by]).
+     */
+    private fun pointDistanceSquared(x: Float, y: Float, ax: Float, ay: Float, bx: Float, by: Float): Float {
+        val dx = bx - ax
+        val dy = by - ay
+        val lengthSquared = dx * dx + dy * dy
+        val t = if (lengthSquared > 0f) {
+            (((x - ax) * dx + (y - ay) * dy) / lengthSquared).coerceIn(0f, 1f)
+        } else {
+            0f
+        }
+        val px = ax + dx * t - x
+        val py = ay + dy * t - y
+        return px * px + py * py
+    }
+
+    /**
+     * Squared distance between the segments from ([ax], [ay]) to ([bx], [by]) and from ([cx], [cy])
+     * to ([dx], [dy]), zero when they cross.
+     */
+    private fun segmentDistanceSquared(
+        ax: Float,
+        ay: Float,
+        bx: Float,
+        by: Float,
+        cx: Float,
+        cy: Float,
+        dx: Float,
+        dy: Float
+    ): Float {
+        val c = cross(ax, ay, bx, by, cx, cy)
+        val d = cross(ax, ay, bx, by, dx, dy)
+        val a = cross(cx, cy, dx, dy, ax, ay)
+        val b = cross(cx, cy, dx, dy, bx, by)
+        if (((c > 0f && d < 0f) || (c < 0f && d > 0f)) && ((a > 0f && b < 0f) || (a < 0f && b > 0f))) {
+            return 0f
+        }
+        return minOf(
+            minOf(pointDistanceSquared(ax, ay, cx, cy, dx, dy), pointDistanceSquared(bx, by, cx, cy, dx, dy)),
+            minOf(pointDistanceSquared(cx, cy, ax, ay, bx, by), pointDistanceSquared(dx, dy, ax, ay, bx, by))
+        )
+    }
+
+    // which side of the line from (ax, ay) to (bx, by) the point (x, y) is on
+    private fun cross(ax: Float, ay: Float, bx: Float, by: Float, x: Float, y: Float): Float {
+        return (bx - ax) * (y - ay) - (by - ay) * (x - ax)
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ExtendedStrokeTest {
+
+    @Test
+    fun testGrowBeyondInitialCapacity() {
+        val stroke = InputManager.ExtendedStroke(2)
+        for (i in 0 until 100) {
+            addSample(stroke, i)
+        }
+
+        assertEquals(100, stroke.size)
+        for (i in 0 until 100) {
+            assertEquals(i.toFloat(), stroke.getX(i))
+            assertEquals(i * 2f, stroke.getY(i))
+            assertEquals(i / 100f, stroke.getPressure(i))
+            assertEquals(i.toLong(), stroke.getTimestamp(i))
+            assertEquals(InputManager.PointerType.PEN_TIP, stroke.getPointerType(i))
+            assertTrue(stroke.isPrimaryButtonPressed(i))
+            assertFalse(stroke.isSecondaryButtonPressed(i))
+        }
+    }
+
+    @Test
+    fun testCopyIsIndependent() {
+        val stroke = InputManager.ExtendedStroke()
+        addSample(stroke, 0)
+        addSample(stroke, 1)
+
+        val copy = stroke.copy()
+        addSample(stroke, 2)
+
+        assertEquals(2, copy.size)
+        assertEquals(3, stroke.size)
+        assertEquals(1f, copy.getX(1))
+    }
+
+    @Test
+    fun testBoundsFollowSamples() {
+        val stroke = InputManager.ExtendedStroke()
+        addSample(stroke, 3)
+        addSample(stroke, 1)
+        addSample(stroke, 7)
+
+        assertEquals(1f, stroke.minX)
+        assertEquals(2f, stroke.minY)
+        assertEquals(7f, stroke.maxX)
+        assertEquals(14f, stroke.maxY)
+        assertEquals(7f, stroke.copy().maxX)
+
+        stroke.reset()
+        assertTrue(stroke.minX > stroke.maxX)
+    }
+
+    @Test
+    fun testPenInfoByIndex() {
+        val stroke = InputManager.ExtendedStroke()
+        addSample(stroke, 5)
+
+        val penInfo = stroke.getPenInfo(0)
+        assertEquals(5f, penInfo.x)
+        assertEquals(10f, penInfo.y)
+        assertEquals(InputManager.PointerType.PEN_TIP, penInfo.pointerType)
+        assertTrue(penInfo.primaryButtonState)
+        assertEquals(5L, penInfo.timestamp)
+    }
+
+    @Test
+    fun testAddPointKeepsTimestamp() {
+        val stroke = InputManager.ExtendedStroke()
+        stroke.addPoint(InputManager.PenInfo(InputManager.PointerType.PEN_TIP, 1f, 2f, 0.5f, 0f, 0f, true, false, 42L))
+
+        assertEquals(42L, stroke.getTimestamp(0))
+        assertEquals(42L, stroke.getPenInfo(0).timestamp)
+    }
+
+    @Test
+    fun testTruncateDropsTrailingSamples() {
+        val stroke = InputManager.ExtendedStroke()
+        addSample(stroke, 2)
+        addSample(stroke, 1)
+        addSample(stroke, 9)
+        stroke.lastPointReferenced = 2
+
+        stroke.truncate(2)
+
+        assertEquals(2, stroke.size)
+        assertEquals(1, stroke.lastPointReferenced)
+        assertEquals(1f, stroke.minX)
+        assertEquals(2f, stroke.maxX)
+        assertEquals(4f, stroke.maxY)
+        addSample(stroke, 3)
+        assertEquals(3f, stroke.getX(2))
+    }
+
+    @Test
+    fun testSetReusesTheStroke() {
+        val source = InputManager.ExtendedStroke()
+        for (i in 0 until 10) {
+            addSample(source, i)
+        }
+        val stroke = InputManager.ExtendedStroke(2)
+        addSample(stroke, 50)
+        stroke.lastPointReferenced = 1
+
+        stroke.set(source, 4, 8)
+
+        assertEquals(4, stroke.size)
+        assertEquals(0, stroke.lastPointReferenced)
+        assertEquals(4f, stroke.getX(0))
+        assertEquals(7L, stroke.getTimestamp(3))
+        assertEquals(4f, stroke.minX)
+        assertEquals(14f, stroke.maxY)
+        addSample(source, 10)
+        assertEquals(4, stroke.size)
+    }
+
+    private fun addSample(stroke: InputManager.ExtendedStroke, i: Int) {
+        stroke.addSample(
+            InputManager.PointerType.PEN_TIP,
+            i.toFloat(),
+            i * 2f,
+            i / 100f,
+            0f,
+            0f,
+            i.toLong(),
+            primaryButtonState = true,
+            secondaryButtonState = false
+        )
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import kotlin.math.cos
+import kotlin.math.roundToInt
+import kotlin.math.sin
+
+class InkFormatTest {
+
+    @Test
+    fun testRoundTripIsWithinQuantization() {
+        val brushes = createBrushes(20, 150)
+
+        val loaded = InkFormat.read(Channels.newChannel(ByteArrayInputStream(encode(brushes))))
+
+        assertEquals(brushes.size, loaded.size)
+        for (b in brushes.indices) {
+            assertBrushEquals(brushes[b], loaded[b])
+        }
+    }
+
+    @Test
+    fun testStreamingReaderWithSmallBuffer() {
+        val brushes = createBrushes(5, 400)
+
+        // records larger than the buffer are read in several pieces
+        val reader = InkFormat.Reader(Channels.newChannel(ByteArrayInputStream(encode(brushes))), bufferSize = 64)
+        for (brush in brushes) {
+            assertBrushEquals(brush, reader.read()!!)
+        }
+        assertNull(reader.read())
+    }
+
+    @Test
+    fun testMappedReader() {
+        val brushes = createBrushes(10, 100)
+        val file = File.createTempFile("ink", ".bin")
+        try {
+            file.writeBytes(encode(brushes))
+            val loaded = InkFormat.map(file)
+            assertEquals(brushes.size, loaded.size)
+            assertBrushEquals(brushes.last(), loaded.last())
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test(expected = IOException::class)
+    fun testRejectsOtherContent() {
+        InkFormat.read(Channels.newChannel(ByteArrayInputStream("{\"strokes\":[]}".toByteArray())))
+    }
+
+    @Test
+    fun testRejectsTruncatedDocument() {
+        val brushes = createBrushes(2, 5)
+        val bytes = encode(brushes)
+        // cuts between records leave a valid document
+        val boundaries = setOf(encode(emptyList()).size, encode(brushes.take(1)).size)
+
+        // cut anywhere else, in the header, a record length or a record
+        for (size in 1 until bytes.size) {
+            if (size in boundaries) {
+                continue
+            }
+            val truncated = bytes.copyOf(size)
+            try {
+                InkFormat.Reader(ByteBuffer.wrap(truncated)).readAll()
+                fail("Read a document truncated to $size bytes")
+            } catch (e: IOException) {
+                // expected
+            }
+            try {
+                InkFormat.read(Channels.newChannel(ByteArrayInputStream(truncated)))
+                fail("Streamed a document truncated to $size bytes")
+            } catch (e: IOException) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IOException::class)
+    fun testRejectsTooLargeRecordLength() {
+        // a header followed by a record claiming Int.MAX_VALUE bytes
+        val bytes = encode(emptyList()) + byteArrayOf(0xff.toByte(), 0xff.toByte(), 0xff.toByte(), 0xff.toByte(), 0x07)
+        InkFormat.read(Channels.newChannel(ByteArrayInputStream(bytes)))
+    }
+
+    private fun encode(brushes: List<InkView.Brush>): ByteArray {
+        val output = ByteArrayOutputStream()
+        InkFormat.write(brushes, Channels.newChannel(output))
+        return output.toByteArray()
+    }
+
+    private fun assertBrushEquals(expected: InkView.Brush, actual: InkView.Brush) {
+        assertEquals(expected.color, actual.color)
+        assertEquals(expected.strokeWidth, actual.strokeWidth, 0f)
+        assertEquals(expected.strokeWidthMax, actual.strokeWidthMax, 0f)
+        val a = expected.stroke
+        val b = actual.stroke
+        assertEquals(a.size, b.size)
+        for (i in 0 until a.size) {
+            // the reader returns exactly the quantized values
+            assertEquals(quantize(a.getX(i), 16), b.getX(i), 0f)
+            assertEquals(quantize(a.getY(i), 16), b.getY(i), 0f)
+            assertEquals(quantize(a.getPressure(i), 4096), b.getPressure(i), 0f)
+            assertEquals(quantize(a.getTilt(i), 1024), b.getTilt(i), 0f)
+            assertEquals(quantize(a.getOrientation(i), 1024), b.getOrientation(i), 0f)
+            assertEquals(a.getTimestamp(i), b.getTimestamp(i))
+            assertEquals(a.getPointerType(i), b.getPointerType(i))
+            assertEquals(a.isPrimaryButtonPressed(i), b.isPrimaryButtonPressed(i))
+        }
+    }
+
+    private fun quantize(value: Float, steps: Int): Float = (value * steps).roundToInt() / steps.toFloat()
+
+    private fun createBrushes(count: Int, samples: Int): List<InkView.Brush> {
+        return List(count) { s ->
+            val stroke = InputManager.ExtendedStroke()
+            for (i in 0 until samples) {
+                val t = i / 10f
+                stroke.addSample(
+                    if (s % 7 == 6) InputManager.PointerType.PEN_ERASER else InputManager.PointerType.PEN_TIP,
+                    100f + s * 3f + t * 40f + 20f * cos(t),
+                    200f + s * 5f + 30f * sin(t),
+                    0.5f + 0.4f * sin(t * 0.7f),
+                    if (s % 2 == 0) 0f else 1.2f,
+                    if (s % 2 == 0) 0f else 0.3f + 0.1f * sin(t),
+                    1_000_000L + s * 10_000L + i * 4L,
+                    i % 50 < 25,
+                    false
+                )
+            }
+            InkView.Brush(0xff000000.toInt() or s * 1000, 1f + s % 3, 10f, null, stroke)
+        }
+    }
+}
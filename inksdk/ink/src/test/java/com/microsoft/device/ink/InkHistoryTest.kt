@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class InkHistoryTest {
+
+    private val released = ArrayList<Long>()
+
+    private fun history() = InkHistory<Long>({ it }, { released.add(it) })
+
+    private fun step() = InkHistory.Step(null, emptyList())
+
+    @Test
+    fun testUndoRedo() {
+        val history = history()
+        val first = step()
+        val second = step()
+        history.push(first)
+        history.push(second)
+
+        assertSame(second, history.undo())
+        assertTrue(history.canRedo)
+        assertSame(first, history.undo())
+        assertNull(history.undo())
+        assertFalse(history.canUndo)
+        assertSame(first, history.redo())
+        assertEquals(1, history.position)
+    }
+
+    @Test
+    fun testPushDropsRedoStepsAndCheckpoints() {
+        val history = history()
+        history.checkpointInterval = 1
+        history.push(step())
+        history.addCheckpoint(10)
+        history.push(step())
+        history.addCheckpoint(20)
+        history.undo()
+
+        history.push(step())
+        assertFalse(history.canRedo)
+        assertEquals(2, history.position)
+        assertEquals(listOf(20L), released)
+        assertEquals(10L, history.checkpointBefore(2)?.snapshot)
+    }
+
+    @Test
+    fun testCheckpointBefore() {
+        val history = history()
+        history.addCheckpoint(1)
+        repeat(5) { history.push(step()) }
+        history.addCheckpoint(2)
+        repeat(2) { history.push(step()) }
+
+        assertEquals(0, history.checkpointBefore(4)?.position)
+        assertEquals(5, history.checkpointBefore(5)?.position)
+        assertEquals(5, history.checkpointBefore(7)?.position)
+        assertEquals(2, history.steps(5, 7).size)
+    }
+
+    @Test
+    fun testCheckpointDue() {
+        val history = history()
+        history.checkpointInterval = 3
+        assertTrue(history.checkpointDue)
+        history.addCheckpoint(1)
+        assertFalse(history.checkpointDue)
+        repeat(2) { history.push(step()) }
+        assertFalse(history.checkpointDue)
+        history.push(step())
+        assertTrue(history.checkpointDue)
+    }
+
+    @Test
+    fun testBudgetReleasesOldestCheckpoints() {
+        val history = history()
+        history.memoryBudget = 100
+        history.addCheckpoint(40)
+        history.push(step())
+        history.addCheckpoint(50)
+        history.push(step())
+        history.addCheckpoint(30)
+
+        assertEquals(listOf(40L), released)
+        assertEquals(80L, history.checkpointBytes)
+
+        history.memoryBudget = 40
+        assertEquals(listOf(40L, 50L), released)
+        assertNull(history.checkpointBefore(1))
+    }
+
+    @Test
+    fun testMaxStepsShiftsCheckpoints() {
+        val history = history()
+        history.maxSteps = 2
+        history.addCheckpoint(1)
+        history.push(step())
+        history.addCheckpoint(2)
+        history.push(step())
+        history.push(step())
+
+        assertEquals(2, history.position)
+        assertEquals(listOf(1L), released)
+        assertEquals(0, history.checkpointBefore(2)?.position)
+        assertEquals(2L, history.checkpointBefore(2)?.snapshot)
+    }
+}
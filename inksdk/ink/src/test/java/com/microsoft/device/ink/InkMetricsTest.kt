@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class InkMetricsTest {
+
+    @Test
+    fun testStrokeMetricsAggregateFrames() {
+        val frame = FrameMetrics()
+        val stroke = StrokeMetrics()
+
+        frame.samples = 4
+        frame.segments = 3
+        frame.pixelsBlitted = 100
+        frame.inputLatencyMillis = 10
+        stroke.add(frame)
+
+        frame.reset()
+        frame.posted = false
+        stroke.add(frame)
+
+        frame.reset()
+        frame.samples = 2
+        frame.inputLatencyMillis = 20
+        stroke.add(frame)
+
+        assertEquals(6, stroke.samples)
+        assertEquals(3, stroke.segments)
+        assertEquals(3, stroke.frames)
+        assertEquals(1, stroke.failedFrames)
+        assertEquals(100L, stroke.pixelsBlitted)
+        assertEquals(20L, stroke.maxInputLatencyMillis)
+        assertEquals(15f, stroke.averageInputLatencyMillis)
+
+        stroke.reset()
+        assertEquals(-1f, stroke.averageInputLatencyMillis)
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class PaintBankTest {
+
+    private val first = Any()
+    private val second = Any()
+
+    @Test
+    fun testValuesAreKeyedByOwnerAndKey() {
+        val bank = PaintBank<String>()
+        bank.put(first, 1, "a")
+        bank.put(second, 1, "b")
+
+        assertEquals("a", bank.get(first, 1))
+        assertEquals("b", bank.get(second, 1))
+        assertNull(bank.get(first, 2))
+    }
+
+    @Test
+    fun testFullBankReplacesOldestEntry() {
+        val bank = PaintBank<String>(2)
+        bank.put(first, 1, "a")
+        bank.put(first, 2, "b")
+        bank.put(first, 3, "c")
+
+        assertNull(bank.get(first, 1))
+        assertEquals("b", bank.get(first, 2))
+        assertEquals("c", bank.get(first, 3))
+
+        bank.clear()
+        assertNull(bank.get(first, 3))
+    }
+
+    @Test
+    fun testPressureBuckets() {
+        assertEquals(0, InkView.DynamicPaintHandler.pressureBucket(-1f))
+        assertEquals(InkView.DynamicPaintHandler.PRESSURE_BUCKETS - 1, InkView.DynamicPaintHandler.pressureBucket(1f))
+        val bucket = InkView.DynamicPaintHandler.pressureBucket(0.5f)
+        assertEquals(0.5f, InkView.DynamicPaintHandler.bucketPressure(bucket), 1f / (InkView.DynamicPaintHandler.PRESSURE_BUCKETS - 1))
+    }
+}
@@ -20,18 +20,20 @@ class PenInfoTest {
     private val pressure = 0.5.toFloat()
     private val tilt = 0.5.toFloat()
     private val orientation = 10.toFloat()
+    private val timestamp = 1234L
     private val stroke = InputManager.ExtendedStroke()
 
     @Before
     fun setup() {
         motionEvent = mock(MotionEvent::class.java)
-        org.mockito.Mockito.`when`(motionEvent.x).thenReturn(x)
-        org.mockito.Mockito.`when`(motionEvent.y).thenReturn(y)
+        org.mockito.Mockito.`when`(motionEvent.getX(0)).thenReturn(x)
+        org.mockito.Mockito.`when`(motionEvent.getY(0)).thenReturn(y)
         org.mockito.Mockito.`when`(motionEvent.getToolType(0)).thenReturn(MotionEvent.TOOL_TYPE_MOUSE)
-        org.mockito.Mockito.`when`(motionEvent.pressure).thenReturn(pressure)
-        org.mockito.Mockito.`when`(motionEvent.getAxisValue(MotionEvent.AXIS_TILT)).thenReturn(tilt)
-        org.mockito.Mockito.`when`(motionEvent.orientation).thenReturn(orientation)
+        org.mockito.Mockito.`when`(motionEvent.getPressure(0)).thenReturn(pressure)
+        org.mockito.Mockito.`when`(motionEvent.getAxisValue(MotionEvent.AXIS_TILT, 0)).thenReturn(tilt)
+        org.mockito.Mockito.`when`(motionEvent.getOrientation(0)).thenReturn(orientation)
         org.mockito.Mockito.`when`(motionEvent.buttonState).thenReturn(MotionEvent.BUTTON_PRIMARY)
+        org.mockito.Mockito.`when`(motionEvent.eventTime).thenReturn(timestamp)
     }
 
     @Test
@@ -45,6 +47,7 @@ class PenInfoTest {
         assertEquals(pressure, penInfo.pressure)
         assertEquals(true, penInfo.primaryButtonState)
         assertEquals(false, penInfo.secondaryButtonState)
+        assertEquals(timestamp, penInfo.timestamp)
     }
 
     @Test
@@ -62,6 +65,7 @@ class PenInfoTest {
         assertNotNull(penInfo)
         assertEquals(x, penInfo?.x)
         assertEquals(y, penInfo?.y)
+        assertEquals(timestamp, penInfo?.timestamp)
     }
 
     @Test
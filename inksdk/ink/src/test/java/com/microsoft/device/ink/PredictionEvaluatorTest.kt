@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.sin
+
+class PredictionEvaluatorTest {
+
+    @Test
+    fun testConstantVelocityIsPredictedExactly() {
+        val stroke = recordStroke { t -> t * 0.5f to t * 0.25f }
+
+        val result = PredictionEvaluator(KinematicPredictor(predictionMillis = 16f)).evaluate(listOf(stroke))
+
+        assertTrue(result.predictionCount > 0)
+        assertEquals(0f, result.maxError, 0.01f)
+        assertEquals(16f, result.meanLatencySavedMillis, 0.01f)
+    }
+
+    @Test
+    fun testCurvedStrokeErrorIsBounded() {
+        val stroke = recordStroke { t -> t * 0.5f to 100f * sin(t / 100f) }
+
+        val result = PredictionEvaluator(KinematicPredictor(predictionMillis = 16f)).evaluate(listOf(stroke))
+
+        assertTrue(result.predictionCount > 0)
+        assertTrue(result.meanError < 1f)
+    }
+
+    private fun recordStroke(position: (Float) -> Pair<Float, Float>): InputManager.ExtendedStroke {
+        val stroke = InputManager.ExtendedStroke()
+        // 240 Hz stylus, roughly 4 ms between samples
+        for (i in 0 until 240) {
+            val t = i * 4L
+            val (x, y) = position(t.toFloat())
+            stroke.addSample(InputManager.PointerType.PEN_TIP, x, y, 0.5f, 0f, 0f, t, false, false)
+        }
+        return stroke
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class SampleRingBufferTest {
+
+    @Test
+    fun testStrokesArePassedInOrder() {
+        val source = stroke(3)
+        val buffer = SampleRingBuffer(8)
+        buffer.offer(SampleRingBuffer.STROKE_BEGIN, source, 0)
+        buffer.offer(SampleRingBuffer.STROKE_SAMPLE, source, 1)
+        buffer.offer(SampleRingBuffer.STROKE_SAMPLE, source, 2)
+        buffer.offerEnd()
+
+        val target = stroke(5)
+        assertEquals(SampleRingBuffer.STROKE_BEGIN, buffer.poll(target))
+        assertEquals(1, target.size)
+        assertEquals(SampleRingBuffer.STROKE_SAMPLE, buffer.poll(target))
+        assertEquals(SampleRingBuffer.STROKE_SAMPLE, buffer.poll(target))
+        assertEquals(SampleRingBuffer.STROKE_END, buffer.poll(target))
+        assertEquals(SampleRingBuffer.EMPTY, buffer.poll(target))
+
+        assertEquals(3, target.size)
+        assertEquals(2f, target.getX(2))
+        assertEquals(InputManager.PointerType.PEN_TIP, target.getPointerType(2))
+        assertTrue(target.isPrimaryButtonPressed(1))
+        assertFalse(target.isSecondaryButtonPressed(1))
+    }
+
+    @Test
+    fun testCancelledStrokeIsFollowedByTheNextOne() {
+        val source = stroke(2)
+        val buffer = SampleRingBuffer(8)
+        buffer.offer(SampleRingBuffer.STROKE_BEGIN, source, 0)
+        buffer.offer(SampleRingBuffer.STROKE_SAMPLE, source, 1)
+        buffer.offerCancel()
+        buffer.offer(SampleRingBuffer.STROKE_BEGIN, source, 1)
+
+        val target = stroke(0)
+        assertEquals(SampleRingBuffer.STROKE_BEGIN, buffer.poll(target))
+        assertEquals(SampleRingBuffer.STROKE_SAMPLE, buffer.poll(target))
+        assertEquals(SampleRingBuffer.STROKE_CANCEL, buffer.poll(target))
+        assertEquals(2, target.size)
+        assertEquals(SampleRingBuffer.STROKE_BEGIN, buffer.poll(target))
+        assertEquals(1, target.size)
+        assertEquals(1f, target.getX(0))
+    }
+
+    @Test
+    fun testFullBufferDropsSamples() {
+        val source = stroke(1)
+        val buffer = SampleRingBuffer(4)
+        repeat(3) { assertTrue(buffer.offer(SampleRingBuffer.STROKE_SAMPLE, source, 0)) }
+
+        assertFalse(buffer.offer(SampleRingBuffer.STROKE_SAMPLE, source, 0))
+        assertFalse(buffer.offer(SampleRingBuffer.STROKE_BEGIN, source, 0))
+        assertEquals(2, buffer.droppedCount)
+    }
+
+    @Test
+    fun testFullBufferKeepsStrokeEnd() {
+        val source = stroke(10)
+        val buffer = SampleRingBuffer(4)
+        assertTrue(buffer.offer(SampleRingBuffer.STROKE_BEGIN, source, 0))
+        for (i in 1 until source.size) {
+            buffer.offer(SampleRingBuffer.STROKE_SAMPLE, source, i)
+        }
+        assertTrue(buffer.offerEnd())
+
+        // the next stroke doesn't fit until the queue is drained
+        assertFalse(buffer.offer(SampleRingBuffer.STROKE_BEGIN, source, 0))
+
+        val target = stroke(0)
+        assertEquals(SampleRingBuffer.STROKE_BEGIN, buffer.poll(target))
+        assertEquals(SampleRingBuffer.STROKE_SAMPLE, buffer.poll(target))
+        assertEquals(SampleRingBuffer.STROKE_SAMPLE, buffer.poll(target))
+        assertEquals(SampleRingBuffer.STROKE_END, buffer.poll(target))
+        assertEquals(SampleRingBuffer.EMPTY, buffer.poll(target))
+        assertEquals(3, target.size)
+        assertEquals(8, buffer.droppedCount)
+    }
+
+    @Test
+    fun testFullBufferKeepsStrokeCancel() {
+        val source = stroke(10)
+        val buffer = SampleRingBuffer(8)
+        assertTrue(buffer.offer(SampleRingBuffer.STROKE_BEGIN, source, 0))
+        for (i in 1 until source.size) {
+            buffer.offer(SampleRingBuffer.STROKE_SAMPLE, source, i)
+        }
+        assertTrue(buffer.offerCancel())
+
+        val target = stroke(0)
+        var last = SampleRingBuffer.EMPTY
+        while (true) {
+            val kind = buffer.poll(target)
+            if (kind == SampleRingBuffer.EMPTY) {
+                break
+            }
+            last = kind
+        }
+        assertEquals(SampleRingBuffer.STROKE_CANCEL, last)
+        assertEquals(7, target.size)
+    }
+
+    @Test
+    fun testConcurrentProducerAndConsumer() {
+        val source = stroke(STROKE_SIZE)
+        val buffer = SampleRingBuffer(64)
+        val strokes = 2000
+
+        val producer = thread {
+            for (s in 0 until strokes) {
+                for (i in 0 until STROKE_SIZE) {
+                    val kind = if (i == 0) SampleRingBuffer.STROKE_BEGIN else SampleRingBuffer.STROKE_SAMPLE
+                    while (!buffer.offer(kind, source, i)) {
+                        Thread.yield()
+                    }
+                }
+                while (!buffer.offerEnd()) {
+                    Thread.yield()
+                }
+            }
+        }
+
+        val target = InputManager.ExtendedStroke()
+        var completed = 0
+        while (completed < strokes) {
+            when (buffer.poll(target)) {
+                SampleRingBuffer.EMPTY -> Thread.yield()
+                SampleRingBuffer.STROKE_END -> {
+                    assertEquals(STROKE_SIZE, target.size)
+                    for (i in 0 until STROKE_SIZE) {
+                        assertEquals(i.toFloat(), target.getX(i))
+                        assertEquals(i.toLong(), target.getTimestamp(i))
+                    }
+                    completed++
+                }
+            }
+        }
+        producer.join()
+        assertTrue(buffer.isEmpty)
+    }
+
+    private fun stroke(count: Int): InputManager.ExtendedStroke {
+        val stroke = InputManager.ExtendedStroke()
+        for (i in 0 until count) {
+            stroke.addSample(InputManager.PointerType.PEN_TIP, i.toFloat(), i * 2f, 0.5f, 0f, 0f, i.toLong(), true, false)
+        }
+        return stroke
+    }
+
+    companion object {
+        private const val STROKE_SIZE = 37
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class SpatialIndexTest {
+
+    private class Box(val left: Float, val top: Float, val right: Float, val bottom: Float) {
+        fun intersects(l: Float, t: Float, r: Float, b: Float) = left <= r && right >= l && top <= b && bottom >= t
+    }
+
+    @Test
+    fun testQueryMatchesBruteForce() {
+        val random = Random(42)
+        val boxes = randomBoxes(random, 10_000)
+        val index = SpatialIndex<Box>()
+        boxes.forEach { index.insert(it, it.left, it.top, it.right, it.bottom) }
+
+        val result = ArrayList<Box>()
+        for (q in 0 until 200) {
+            val l = random.nextFloat() * 4000f - 100f
+            val t = random.nextFloat() * 4000f - 100f
+            val r = l + random.nextFloat() * 600f
+            val b = t + random.nextFloat() * 600f
+
+            result.clear()
+            index.query(l, t, r, b, result)
+            // same items, in insertion order
+            assertEquals(boxes.filter { it.intersects(l, t, r, b) }, result)
+        }
+    }
+
+    @Test
+    fun testReinsertAtOrderKeepsDrawingOrder() {
+        val a = Box(0f, 0f, 10f, 10f)
+        val b = Box(5f, 5f, 15f, 15f)
+        val c = Box(8f, 8f, 20f, 20f)
+        val split1 = Box(5f, 5f, 7f, 7f)
+        val split2 = Box(12f, 12f, 15f, 15f)
+        val index = SpatialIndex<Box>(cellSize = 8f)
+        listOf(a, b, c).forEach { index.insert(it, it.left, it.top, it.right, it.bottom) }
+
+        // the pieces of a split stroke take its place, as the vector eraser does
+        val order = index.orderOf(b)
+        index.remove(b)
+        listOf(split1, split2).forEach { index.insert(it, it.left, it.top, it.right, it.bottom, order) }
+        val result = ArrayList<Box>()
+        index.query(0f, 0f, 100f, 100f, result)
+        assertEquals(listOf(a, split1, split2, c), result)
+
+        index.remove(a)
+        result.clear()
+        index.query(1f, 1f, result)
+        assertTrue(result.isEmpty())
+        assertEquals(3, index.size)
+    }
+
+    private fun randomBoxes(random: Random, count: Int): List<Box> {
+        // mostly short strokes with a few long ones, on a 4000 x 4000 page
+        return List(count) {
+            val x = random.nextFloat() * 4000f
+            val y = random.nextFloat() * 4000f
+            val extent = if (random.nextInt(20) == 0) 1500f else 120f
+            Box(x, y, x + random.nextFloat() * extent, y + random.nextFloat() * extent)
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import org.junit.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyFloat
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.atLeastOnce
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+
+class StrokeRendererTest {
+
+    @Test
+    fun testPressureStrokeErasesAfterToolChange() {
+        val stroke = InputManager.ExtendedStroke()
+        for (i in 0 until 10) {
+            // eraser button pressed halfway through the stroke
+            val type = if (i < 5) InputManager.PointerType.PEN_TIP else InputManager.PointerType.PEN_ERASER
+            stroke.addSample(type, i * 10f, 0f, 0.5f, 0f, 0f, i.toLong(), false, false)
+        }
+        val canvas = mock(Canvas::class.java)
+        val eraserCanvas = mock(Canvas::class.java)
+
+        StrokeRenderer(1f).render(canvas, eraserCanvas, InkView.Brush(Color.BLACK, 2f, 8f, null, stroke), true, final = true)
+
+        verify(eraserCanvas, atLeastOnce()).drawCircle(anyFloat(), anyFloat(), eq(eraserRadius), any(Paint::class.java))
+    }
+
+    @Test
+    fun testPressureStrokeWithoutEraserDoesNotErase() {
+        val stroke = InputManager.ExtendedStroke()
+        for (i in 0 until 10) {
+            stroke.addSample(InputManager.PointerType.PEN_TIP, i * 10f, 0f, 0.5f, 0f, 0f, i.toLong(), false, false)
+        }
+        val canvas = mock(Canvas::class.java)
+        val eraserCanvas = mock(Canvas::class.java)
+
+        StrokeRenderer(1f).render(canvas, eraserCanvas, InkView.Brush(Color.BLACK, 2f, 8f, null, stroke), true, final = true)
+
+        verify(eraserCanvas, never()).drawCircle(anyFloat(), anyFloat(), anyFloat(), any(Paint::class.java))
+    }
+}
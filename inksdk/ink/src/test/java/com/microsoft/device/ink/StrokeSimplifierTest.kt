@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.nio.channels.Channels
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+class StrokeSimplifierTest {
+
+    @Test
+    fun testStraightLineKeepsEndpoints() {
+        val stroke = record(100) { t -> Triple(t * 2f, t * 1f, 0.5f) }
+
+        val simplified = StrokeSimplifier().simplify(stroke)
+
+        assertEquals(2, simplified.size)
+        assertEquals(0f, simplified.getX(0))
+        assertEquals(stroke.getX(99), simplified.getX(1))
+    }
+
+    @Test
+    fun testPressureChangesAreKept() {
+        // straight line whose pressure rises and falls again
+        val stroke = record(100) { t -> Triple(t * 2f, 0f, if (t < 50) t / 50f else (100 - t) / 50f) }
+
+        val simplified = StrokeSimplifier(pressureTolerance = 0.05f).simplify(stroke)
+
+        assertTrue(simplified.size > 2)
+        assertTrue((0 until simplified.size).any { simplified.getPressure(it) > 0.95f })
+    }
+
+    @Test
+    fun testCurveStaysWithinTolerance() {
+        val stroke = handwriting(0)
+        val tolerance = 0.5f
+
+        val simplified = StrokeSimplifier(tolerance, pressureTolerance = 1f).simplify(stroke)
+
+        assertTrue(simplified.size < stroke.size)
+        for (i in 0 until stroke.size) {
+            assertTrue(distanceToPolyline(simplified, stroke.getX(i), stroke.getY(i)) <= tolerance + 1e-3f)
+        }
+    }
+
+    @Test
+    fun testPointerTypeChangesAreKept() {
+        val stroke = InputManager.ExtendedStroke()
+        for (i in 0 until 20) {
+            val type = if (i < 10) InputManager.PointerType.PEN_TIP else InputManager.PointerType.PEN_ERASER
+            stroke.addSample(type, i.toFloat(), 0f, 0.5f, 0f, 0f, i.toLong(), false, false)
+        }
+
+        val simplified = StrokeSimplifier().simplify(stroke)
+
+        assertEquals(listOf(0f, 9f, 10f, 19f), (0 until simplified.size).map { simplified.getX(it) })
+    }
+
+    @Test
+    fun testRecordedStrokesShrink() {
+        val strokes = List(50) { handwriting(it) }
+        val simplifier = StrokeSimplifier()
+
+        val simplified = strokes.map { simplifier.simplify(it) }
+
+        // replay speed is measured by StrokeSimplifierBenchmark on a device
+        assertTrue(simplified.sumOf { it.size } * 2 < strokes.sumOf { it.size })
+        assertTrue(encodedSize(simplified) < encodedSize(strokes))
+    }
+
+    private fun encodedSize(strokes: List<InputManager.ExtendedStroke>): Int {
+        val output = ByteArrayOutputStream()
+        InkFormat.write(strokes.map { InkView.Brush(0, 1f, 10f, null, it) }, Channels.newChannel(output))
+        return output.size()
+    }
+
+    /**
+     * A cursive like loop stroke sampled at 240 Hz with pressure varying along the stroke.
+     */
+    private fun handwriting(seed: Int): InputManager.ExtendedStroke {
+        return record(400) { t ->
+            val phase = t / 25f + seed
+            Triple(
+                t * 1.5f + 30f * cos(phase),
+                40f * sin(phase) + 10f * sin(phase * 0.3f),
+                0.6f + 0.3f * sin(t / 60f)
+            )
+        }
+    }
+
+    private fun record(count: Int, position: (Int) -> Triple<Float, Float, Float>): InputManager.ExtendedStroke {
+        val stroke = InputManager.ExtendedStroke()
+        for (t in 0 until count) {
+            val (x, y, pressure) = position(t)
+            stroke.addSample(InputManager.PointerType.PEN_TIP, x, y, pressure, 0f, 0f, t * 4L, false, false)
+        }
+        return stroke
+    }
+
+    private fun distanceToPolyline(stroke: InputManager.ExtendedStroke, x: Float, y: Float): Float {
+        var best = Float.MAX_VALUE
+        for (i in 0 until stroke.size - 1) {
+            val ax = stroke.getX(i)
+            val ay = stroke.getY(i)
+            val dx = stroke.getX(i + 1) - ax
+            val dy = stroke.getY(i + 1) - ay
+            val lengthSquared = dx * dx + dy * dy
+            val t = if (lengthSquared > 0f) (((x - ax) * dx + (y - ay) * dy) / lengthSquared).coerceIn(0f, 1f) else 0f
+            val px = ax + dx * t - x
+            val py = ay + dy * t - y
+            best = minOf(best, sqrt(px * px + py * py))
+        }
+        return abs(best)
+    }
+}
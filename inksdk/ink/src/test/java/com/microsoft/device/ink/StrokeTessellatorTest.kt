@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import android.graphics.Color
+import android.graphics.Path
+import org.junit.Assert.assertNotEquals
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+
+class StrokeTessellatorTest {
+
+    @Test
+    fun testCapOverlapIsFilled() {
+        val stroke = InputManager.ExtendedStroke()
+        for (i in 0 until 3) {
+            stroke.addSample(InputManager.PointerType.PEN_TIP, i * 50f, 0f, 1f, 0f, 0f, i.toLong(), false, false)
+        }
+        val brush = InkView.Brush(Color.BLACK, 10f, 10f, null, stroke)
+        val mesh = StrokeMesh()
+
+        StrokeTessellator(1f).tessellate(brush, 0, stroke.size - 1, mesh)
+
+        // inside the start cap and the body
+        val x = 2f
+        val y = 1f
+        val body = winding(bodyOutline(mesh), x, y)
+        val cap = winding(circle(0f, 0f, 5f, StrokeTessellator.CAP_DIRECTION), x, y)
+        assertNotEquals(0, body)
+        assertNotEquals(0, body + cap)
+    }
+
+    // outline of the body as built by the tessellator, left edge forward, right edge backwards
+    private fun bodyOutline(mesh: StrokeMesh): FloatArray {
+        val outline = FloatArray(mesh.vertexCount * 2)
+        var o = 0
+        for (v in 0 until mesh.vertexCount step 2) {
+            outline[o++] = mesh.vertices[v * 2]
+            outline[o++] = mesh.vertices[v * 2 + 1]
+        }
+        var v = mesh.vertexCount - 1
+        while (v > 0) {
+            outline[o++] = mesh.vertices[v * 2]
+            outline[o++] = mesh.vertices[v * 2 + 1]
+            v -= 2
+        }
+        return outline
+    }
+
+    // Path.addCircle starts at the right and runs with growing angles when clockwise on screen
+    private fun circle(cx: Float, cy: Float, r: Float, direction: Path.Direction): FloatArray {
+        val sign = if (direction == Path.Direction.CW) 1 else -1
+        val steps = 64
+        return FloatArray(steps * 2) { i ->
+            val angle = sign * 2 * PI * (i / 2) / steps
+            if (i % 2 == 0) cx + r * cos(angle).toFloat() else cy + r * sin(angle).toFloat()
+        }
+    }
+
+    // winding number of a closed polygon of x, y pairs around a point
+    private fun winding(polygon: FloatArray, x: Float, y: Float): Int {
+        var winding = 0
+        val count = polygon.size / 2
+        for (i in 0 until count) {
+            val x0 = polygon[i * 2]
+            val y0 = polygon[i * 2 + 1]
+            val x1 = polygon[(i + 1) % count * 2]
+            val y1 = polygon[(i + 1) % count * 2 + 1]
+            val side = (x1 - x0) * (y - y0) - (x - x0) * (y1 - y0)
+            if (y0 <= y && y1 > y && side > 0) {
+                winding++
+            } else if (y0 > y && y1 <= y && side < 0) {
+                winding--
+            }
+        }
+        return winding
+    }
+}
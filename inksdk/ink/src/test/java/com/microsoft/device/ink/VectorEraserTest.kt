@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ *  Licensed under the MIT License.
+ */
+
+package com.microsoft.device.ink
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class VectorEraserTest {
+
+    private val damage = FloatArray(4)
+
+    @Test
+    fun testMissReturnsNull() {
+        val stroke = horizontalStroke(21)
+
+        assertNull(VectorEraser.erase(stroke, 100f, 50f, 150f, 50f, 15f, damage))
+    }
+
+    @Test
+    fun testEraseMiddleSplitsStroke() {
+        val stroke = horizontalStroke(21)
+
+        val runs = VectorEraser.erase(stroke, 100f, 0f, 100f, 0f, 15f, damage)
+
+        assertEquals(listOf(0..8, 12..20), runs)
+        assertEquals(80f, damage[0])
+        assertEquals(120f, damage[2])
+    }
+
+    @Test
+    fun testSweptSegmentErasesBetweenSamples() {
+        val stroke = horizontalStroke(21)
+
+        // the eraser crosses the stroke between two of its samples
+        val runs = VectorEraser.erase(stroke, 105f, -50f, 105f, 50f, 6f, damage)
+
+        assertEquals(listOf(0..9, 12..20), runs)
+    }
+
+    @Test
+    fun testEraserCrossingSegmentCutsIt() {
+        val stroke = InputManager.ExtendedStroke()
+        for (x in listOf(0f, 10f, 200f, 210f)) {
+            stroke.addSample(InputManager.PointerType.PEN_TIP, x, 0f, 0.5f, 0f, 0f, 0L, false, false)
+        }
+
+        // far from every sample, across the segment between the two middle ones
+        val runs = VectorEraser.erase(stroke, 100f, -50f, 100f, 50f, 5f, damage)
+
+        assertEquals(listOf(0..1, 2..3), runs)
+        assertEquals(0f, damage[0])
+        assertEquals(210f, damage[2])
+    }
+
+    @Test
+    fun testShortRemaindersAreDropped() {
+        val stroke = horizontalStroke(4)
+
+        val runs = VectorEraser.erase(stroke, 10f, 0f, 10f, 0f, 5f, damage)
+
+        assertEquals(listOf(2..3), runs)
+        assertEquals(0f, damage[0])
+
+        assertEquals(emptyList<IntRange>(), VectorEraser.erase(stroke, 0f, 0f, 30f, 0f, 5f, damage))
+    }
+
+    private fun horizontalStroke(count: Int): InputManager.ExtendedStroke {
+        val stroke = InputManager.ExtendedStroke()
+        for (i in 0 until count) {
+            stroke.addSample(InputManager.PointerType.PEN_TIP, i * 10f, 0f, 0.5f, 0f, 0f, i.toLong(), false, false)
+        }
+        return stroke
+    }
+}
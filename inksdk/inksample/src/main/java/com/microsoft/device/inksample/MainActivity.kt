@@ -177,9 +177,14 @@ class MainActivity : AppCompatActivity() {
      * Renders the ink with transparency linked to the pressure on the pen.
      */
     inner class FancyPaintHandler : DynamicPaintHandler {
+        // one paint per color and pressure level
+        override fun paintCacheKey(stroke: InputManager.ExtendedStroke, index: Int): Long =
+            (inkView.color.toLong() shl 32) or DynamicPaintHandler.pressureBucket(stroke.getPressure(index)).toLong()
+
         override fun generatePaintFromPenInfo(penInfo: InputManager.PenInfo): Paint {
             val paint = Paint()
-            val alpha = penInfo.pressure * 255
+            val pressure = DynamicPaintHandler.bucketPressure(DynamicPaintHandler.pressureBucket(penInfo.pressure))
+            val alpha = pressure * 255
 
             paint.color = Color.argb(
                 alpha.toInt(),
@@ -191,7 +196,7 @@ class MainActivity : AppCompatActivity() {
             // Set stroke width based on display density.
             paint.strokeWidth = TypedValue.applyDimension(
                 TypedValue.COMPLEX_UNIT_DIP,
-                penInfo.pressure * (inkView.strokeWidthMax - inkView.strokeWidth) + inkView.strokeWidth,
+                pressure * (inkView.strokeWidthMax - inkView.strokeWidth) + inkView.strokeWidth,
                 resources.displayMetrics
             )
             paint.style = Paint.Style.STROKE
@@ -207,8 +212,12 @@ class MainActivity : AppCompatActivity() {
      * and yellow-colored.
      */
     inner class HighlighterPaintHandler : DynamicPaintHandler {
+        override fun paintCacheKey(stroke: InputManager.ExtendedStroke, index: Int): Long =
+            DynamicPaintHandler.pressureBucket(stroke.getPressure(index)).toLong()
+
         override fun generatePaintFromPenInfo(penInfo: InputManager.PenInfo): Paint {
             val paint = Paint()
+            val pressure = DynamicPaintHandler.bucketPressure(DynamicPaintHandler.pressureBucket(penInfo.pressure))
             val alpha = 80
 
             paint.color = Color.argb(
@@ -221,7 +230,7 @@ class MainActivity : AppCompatActivity() {
             // Set stroke width based on display density.
             paint.strokeWidth = TypedValue.applyDimension(
                 TypedValue.COMPLEX_UNIT_DIP,
-                penInfo.pressure * (inkView.strokeWidthMax - inkView.strokeWidth) + inkView.strokeWidth,
+                pressure * (inkView.strokeWidthMax - inkView.strokeWidth) + inkView.strokeWidth,
                 resources.displayMetrics
             )
             paint.style = Paint.Style.STROKE